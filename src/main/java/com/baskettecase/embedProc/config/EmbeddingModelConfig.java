@@ -1,6 +1,14 @@
 package com.baskettecase.embedProc.config;
 
+import com.baskettecase.embedProc.service.CachingEmbeddingModel;
+import com.baskettecase.embedProc.service.EmbeddingCache;
+import com.baskettecase.embedProc.service.EmbeddingHedgeBackend;
+import com.baskettecase.embedProc.service.EmbeddingRateLimiter;
+import com.baskettecase.embedProc.service.RateLimitedEmbeddingModel;
+import com.baskettecase.embedProc.service.StageMetrics;
+import com.baskettecase.embedProc.service.TimedEmbeddingModel;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
@@ -17,8 +25,12 @@ public class EmbeddingModelConfig {
     @Bean
     @Primary
     @Profile("standalone")
-    public EmbeddingModel standaloneEmbeddingModel(@Qualifier("ollamaEmbeddingModel") EmbeddingModel ollamaEmbeddingModel) {
-        return ollamaEmbeddingModel;
+    public EmbeddingModel standaloneEmbeddingModel(@Qualifier("ollamaEmbeddingModel") EmbeddingModel ollamaEmbeddingModel,
+                                                   ObjectProvider<EmbeddingCache> embeddingCache,
+                                                   ObjectProvider<EmbeddingRateLimiter> rateLimiter,
+                                                   ObjectProvider<EmbeddingHedgeBackend> hedgeBackend,
+                                                   StageMetrics stageMetrics) {
+        return decorate(ollamaEmbeddingModel, embeddingCache, rateLimiter, hedgeBackend, stageMetrics, "ollama");
     }
 
     /**
@@ -28,7 +40,39 @@ public class EmbeddingModelConfig {
     @Bean
     @Primary
     @Profile("cloud")
-    public EmbeddingModel cloudEmbeddingModel(@Qualifier("openAiEmbeddingModel") EmbeddingModel openAiEmbeddingModel) {
-        return openAiEmbeddingModel;
+    public EmbeddingModel cloudEmbeddingModel(@Qualifier("openAiEmbeddingModel") EmbeddingModel openAiEmbeddingModel,
+                                              ObjectProvider<EmbeddingCache> embeddingCache,
+                                              ObjectProvider<EmbeddingRateLimiter> rateLimiter,
+                                              ObjectProvider<EmbeddingHedgeBackend> hedgeBackend,
+                                              StageMetrics stageMetrics) {
+        return decorate(openAiEmbeddingModel, embeddingCache, rateLimiter, hedgeBackend, stageMetrics, "openai");
     }
-}
\ No newline at end of file
+
+    /**
+     * Wrap the provider model with the optional hedging, rate limiter and embedding cache, then the stage timer.
+     * The vector store embeds through the primary model, so these apply to every write path.
+     * The cache sits inside the timer so that cache hits never consume provider quota, while
+     * the embed stage timer still covers everything the write waits on for its embeddings.
+     * Vectors answered by the hedge secondary are not cached, since the keys name the primary model.
+     */
+    private EmbeddingModel decorate(EmbeddingModel model,
+                                    ObjectProvider<EmbeddingCache> embeddingCache,
+                                    ObjectProvider<EmbeddingRateLimiter> rateLimiter,
+                                    ObjectProvider<EmbeddingHedgeBackend> hedgeBackend,
+                                    StageMetrics stageMetrics,
+                                    String backend) {
+        EmbeddingHedgeBackend hedge = hedgeBackend.getIfAvailable();
+        if (hedge != null) {
+            model = hedge.wrap(model);
+        }
+        EmbeddingRateLimiter limiter = rateLimiter.getIfAvailable();
+        if (limiter != null) {
+            model = new RateLimitedEmbeddingModel(model, limiter);
+        }
+        EmbeddingCache cache = embeddingCache.getIfAvailable();
+        if (cache != null) {
+            model = new CachingEmbeddingModel(model, cache);
+        }
+        return new TimedEmbeddingModel(model, stageMetrics, backend);
+    }
+}
@@ -0,0 +1,37 @@
+package com.baskettecase.embedProc.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class ExecutionConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionConfig.class);
+
+    /**
+     * Executor for blocking embedding and store calls.
+     * With spring.threads.virtual.enabled=true each task runs on its own virtual thread, the same switch
+     * that moves Spring's task executor and the Rabbit listener containers onto virtual threads.
+     * Concurrency is bounded by explicit semaphores and limiters at the call sites, not by pool size.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService ioExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            logger.info("Blocking I/O executor using virtual threads");
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("io-", 1).factory());
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,271 @@
+package com.baskettecase.embedProc.processor;
+
+import com.baskettecase.embedProc.service.DocumentType;
+import com.baskettecase.embedProc.service.FileDownloaderService;
+import com.baskettecase.embedProc.service.MonitorService;
+import com.baskettecase.embedProc.service.TextChunkingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Staged file pipeline: download -> chunk -> embed/store.
+ * Each stage has its own thread pool with a bounded task queue, and chunk batches are
+ * handed to the embedding stage through a bounded queue. A stage whose queue is full blocks
+ * the stage feeding it, so backpressure reaches the message consumer. Network, CPU and database work for
+ * different files and batches therefore overlap, and memory stays bounded.
+ * With spring.threads.virtual.enabled=true the blocking download and embed stages run on
+ * virtual threads. Concurrent downloads are capped by app.io.max-concurrent-downloads in
+ * FileDownloaderService either way.
+ */
+@Component
+@Profile("cloud")
+@ConditionalOnProperty(name = "app.pipeline.enabled", havingValue = "true")
+public class FileProcessingPipeline implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileProcessingPipeline.class);
+
+    private final FileDownloaderService fileDownloaderService;
+    private final TextChunkingService textChunkingService;
+    private final MonitorService monitorService;
+    private final int batchSize;
+
+    private final ExecutorService downloadExecutor;
+    private final ExecutorService chunkExecutor;
+    private final ExecutorService embedExecutor;
+    private final BlockingQueue<ChunkBatch> embedQueue;
+    private volatile boolean running = true;
+
+    public FileProcessingPipeline(FileDownloaderService fileDownloaderService,
+                                  TextChunkingService textChunkingService,
+                                  @Autowired(required = false) MonitorService monitorService,
+                                  @Value("${app.pipeline.download-threads:2}") int downloadThreads,
+                                  @Value("${app.pipeline.chunk-threads:2}") int chunkThreads,
+                                  @Value("${app.pipeline.embed-threads:4}") int embedThreads,
+                                  @Value("${app.pipeline.queue-capacity:8}") int queueCapacity,
+                                  @Value("${app.pipeline.batch-size:100}") int batchSize,
+                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.fileDownloaderService = fileDownloaderService;
+        this.textChunkingService = textChunkingService;
+        this.monitorService = monitorService;
+        this.batchSize = batchSize;
+        if (virtualThreads) {
+            this.downloadExecutor = boundedPool(downloadThreads, queueCapacity, Thread.ofVirtual().name("pipeline-download-", 1).factory());
+            this.embedExecutor = boundedPool(embedThreads, queueCapacity, Thread.ofVirtual().name("pipeline-embed-", 1).factory());
+        } else {
+            this.downloadExecutor = boundedPool(downloadThreads, queueCapacity, namedThreads("pipeline-download-"));
+            this.embedExecutor = boundedPool(embedThreads, queueCapacity, namedThreads("pipeline-embed-"));
+        }
+        // Chunking is CPU-bound and stays on platform threads
+        this.chunkExecutor = boundedPool(chunkThreads, queueCapacity, namedThreads("pipeline-chunk-"));
+        this.embedQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        for (int i = 0; i < embedThreads; i++) {
+            embedExecutor.execute(this::runEmbedStage);
+        }
+        logger.info("FileProcessingPipeline initialized - download: {}, chunk: {}, embed: {} threads, queue: {} batches of {} chunks, virtual threads: {}",
+                   downloadThreads, chunkThreads, embedThreads, queueCapacity, batchSize, virtualThreads);
+    }
+
+    /**
+     * Submit a file to the pipeline
+     * @param fileUrl URL of the file to download
+     * @param batchWriter Embeds and stores one batch of chunks for this file
+     * @return Future completed with the number of chunks once every batch has been written, or exceptionally
+     *         if the download or chunking failed or any chunk could not be stored
+     */
+    public CompletableFuture<Integer> submit(String fileUrl, BatchWriter batchWriter) {
+        FileJob job = new FileJob(fileUrl, batchWriter);
+        CompletableFuture
+            .supplyAsync(() -> download(job), downloadExecutor)
+            .thenAcceptAsync(tempFile -> chunk(job, tempFile), chunkExecutor)
+            .whenComplete((ignored, error) -> {
+                if (error != null) {
+                    job.fail(error.getCause() != null ? error.getCause() : error);
+                } else {
+                    job.chunkingFinished();
+                }
+            });
+        return job.completion;
+    }
+
+    private File download(FileJob job) {
+        File tempFile = fileDownloaderService.downloadFileToTemp(job.fileUrl);
+        if (tempFile == null || !tempFile.exists()) {
+            throw new IllegalStateException("Failed to download file to temp storage: " + job.fileUrl);
+        }
+        logger.info("Downloaded {} ({} bytes), queued for chunking", job.fileUrl, tempFile.length());
+        return tempFile;
+    }
+
+    private void chunk(FileJob job, File tempFile) {
+        // Chunks are read lazily, so batches reach the embedding stage before the file is fully chunked
+        try (Stream<String> chunks = textChunkingService.chunkStream(Files.newInputStream(tempFile.toPath()),
+                DocumentType.fromUrl(job.fileUrl))) {
+            Iterator<String> iterator = chunks.iterator();
+            int chunkCount = 0;
+            while (iterator.hasNext() && job.failure.get() == null) {
+                List<String> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                }
+                if (monitorService != null) {
+                    monitorService.incrementTotalChunks(batch.size());
+                }
+                job.pendingBatches.incrementAndGet();
+                job.totalChunks.addAndGet(batch.size());
+                // Blocks while the embedding stage is saturated
+                embedQueue.put(new ChunkBatch(job, batch, chunkCount));
+                chunkCount += batch.size();
+            }
+            logger.info("Created {} chunks from {}", chunkCount, job.fileUrl);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing chunks for " + job.fileUrl, e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to chunk " + job.fileUrl + ": " + e.getMessage(), e);
+        } finally {
+            if (!tempFile.delete()) {
+                logger.warn("Failed to clean up temp file: {}", tempFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private void runEmbedStage() {
+        while (running) {
+            ChunkBatch batch;
+            try {
+                batch = embedQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // A failed batch does not stop the file's other batches; the failed chunks are reported on completion
+            try {
+                batch.job.failedChunks.addAndGet(batch.job.batchWriter.write(batch.chunks, batch.firstChunkIndex));
+            } catch (Exception e) {
+                logger.error("Failed to embed batch of {} chunks for {}: {}", batch.chunks.size(), batch.job.fileUrl, e.getMessage());
+                batch.job.failedChunks.addAndGet(batch.chunks.size());
+            } finally {
+                batch.job.batchFinished();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        downloadExecutor.shutdownNow();
+        chunkExecutor.shutdownNow();
+        embedExecutor.shutdownNow();
+    }
+
+    /**
+     * Fixed-size pool whose task queue holds at most queueCapacity tasks. Submitting to a full
+     * queue blocks the caller until a slot frees up rather than rejecting the task.
+     */
+    private static ExecutorService boundedPool(int threads, int queueCapacity, ThreadFactory threadFactory) {
+        RejectedExecutionHandler blockWhenFull = (task, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Pipeline is shut down");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for pipeline capacity", e);
+            }
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, blockWhenFull);
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Embeds and stores one batch of a file's chunks
+     */
+    @FunctionalInterface
+    public interface BatchWriter {
+        /**
+         * @param firstChunkIndex Ordinal of the batch's first chunk within the file
+         * @return Number of chunks that could not be stored
+         */
+        int write(List<String> chunks, int firstChunkIndex);
+    }
+
+    /**
+     * Per-file bookkeeping. The pending count starts at one for the chunking stage itself,
+     * so the file completes only after chunking has finished and every queued batch is written.
+     */
+    private static class FileJob {
+        final String fileUrl;
+        final BatchWriter batchWriter;
+        final AtomicInteger pendingBatches = new AtomicInteger(1);
+        final AtomicInteger totalChunks = new AtomicInteger();
+        final AtomicInteger failedChunks = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CompletableFuture<Integer> completion = new CompletableFuture<>();
+
+        FileJob(String fileUrl, BatchWriter batchWriter) {
+            this.fileUrl = fileUrl;
+            this.batchWriter = batchWriter;
+        }
+
+        void chunkingFinished() {
+            batchFinished();
+        }
+
+        void fail(Throwable error) {
+            failure.compareAndSet(null, error);
+            batchFinished();
+        }
+
+        void batchFinished() {
+            if (pendingBatches.decrementAndGet() == 0) {
+                Throwable error = failure.get();
+                if (error != null) {
+                    completion.completeExceptionally(error);
+                } else if (failedChunks.get() > 0) {
+                    completion.completeExceptionally(new IllegalStateException(
+                        failedChunks.get() + " of " + totalChunks.get() + " chunks could not be stored for " + fileUrl));
+                } else {
+                    completion.complete(totalChunks.get());
+                }
+            }
+        }
+    }
+
+    private record ChunkBatch(FileJob job, List<String> chunks, int firstChunkIndex) {
+    }
+}
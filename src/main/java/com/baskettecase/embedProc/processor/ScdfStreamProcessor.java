@@ -3,7 +3,9 @@ package com.baskettecase.embedProc.processor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import com.baskettecase.embedProc.service.ChunkSpool;
 import com.baskettecase.embedProc.service.FileDownloaderService;
 import com.baskettecase.embedProc.service.TextChunkingService;
 import com.baskettecase.embedProc.service.EmbeddingService;
@@ -25,13 +27,21 @@ import org.springframework.scheduling.annotation.EnableAsync;
 
 
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.Semaphore;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 import java.nio.file.Files;
 
@@ -64,6 +74,9 @@ public class ScdfStreamProcessor {
     private final AtomicInteger activeProcessingCount = new AtomicInteger(0);
     private final Semaphore processingSemaphore;
     private final int maxConcurrentFiles;
+    private final FileProcessingPipeline fileProcessingPipeline;
+    private final ChunkSpool chunkSpool;
+    private final boolean streamingDownloads;
 
     public ScdfStreamProcessor(FileDownloaderService fileDownloaderService,
                              TextChunkingService textChunkingService,
@@ -77,7 +90,10 @@ public class ScdfStreamProcessor {
                              @Value("${app.reference-numbers.default.refnum1:100001}") Integer defaultRefnum1,
                              @Value("${app.reference-numbers.default.refnum2:200001}") Integer defaultRefnum2,
                              @Value("${app.processing.max-concurrent-files:2}") int maxConcurrentFiles,
-                             ObjectMapper objectMapper) {
+                             @Value("${app.download.streaming:true}") boolean streamingDownloads,
+                             ObjectMapper objectMapper,
+                             @Autowired(required = false) FileProcessingPipeline fileProcessingPipeline,
+                             @Autowired(required = false) ChunkSpool chunkSpool) {
         this.fileDownloaderService = fileDownloaderService;
         this.textChunkingService = textChunkingService;
         this.embeddingService = embeddingService;
@@ -92,8 +108,14 @@ public class ScdfStreamProcessor {
         this.maxConcurrentFiles = maxConcurrentFiles;
         this.processingSemaphore = new Semaphore(maxConcurrentFiles);
         this.objectMapper = objectMapper;
+        this.fileProcessingPipeline = fileProcessingPipeline;
+        this.chunkSpool = chunkSpool;
+        this.streamingDownloads = streamingDownloads;
         
         logger.info("ScdfStreamProcessor initialized with reference numbers: {}", useReferenceNumbers);
+        if (fileProcessingPipeline != null) {
+            logger.info("Staged file processing pipeline enabled");
+        }
         if (useReferenceNumbers) {
             logger.info("Default reference numbers - refnum1: {}, refnum2: {}", defaultRefnum1, defaultRefnum2);
         }
@@ -145,11 +167,14 @@ public class ScdfStreamProcessor {
 
     
     /**
-     * Process file in streaming fashion from temp storage with real-time metrics
+     * Process file in streaming fashion with real-time metrics. The download is chunked and
+     * embedded as it arrives unless app.download.streaming=false or the chunk spool is enabled,
+     * in which case it is downloaded to temp storage first.
      */
     @Async
     public CompletableFuture<Void> processFileStreamingFromTemp(String fileUrl) {
         File tempFile = null;
+        ChunkSpool.SpooledFile spooledFile = null;
         try {
             logger.info("Starting streaming temp file processing for: {}", fileUrl);
             
@@ -162,40 +187,80 @@ public class ScdfStreamProcessor {
                 monitorService.setCurrentFile(filename);
             }
             
-            // Download file to temp storage using FileDownloaderService
-            tempFile = fileDownloaderService.downloadFileToTemp(fileUrl);
-            if (tempFile == null || !tempFile.exists()) {
-                logger.warn("Failed to download file to temp storage: {}", fileUrl);
-                return CompletableFuture.completedFuture(null);
-            }
-            
-            logger.info("Processing temp file: {} ({} bytes)", tempFile.getAbsolutePath(), tempFile.length());
-            
-            // Read file content from temp storage
-            String fileContent = new String(Files.readAllBytes(tempFile.toPath()));
-            logger.info("Processing document of length: {} characters from temp file", fileContent.length());
-            
             // Process in streaming batches with real-time metrics
             int streamingChunkSize = 200; // Smaller batches for better responsiveness
-            List<String> allChunks = textChunkingService.chunkTextEnhanced(fileContent);
-            logger.info("Created {} total chunks from temp file", allChunks.size());
-            
-            if (allChunks.isEmpty()) {
-                logger.warn("No chunks generated from the temp file");
+            List<String> allChunks;
+            int resumeFrom = 0;
+
+            // A spool left by an interrupted attempt skips the download and chunking, unless the file changed since
+            String sourceVersion = chunkSpool != null ? fileDownloaderService.sourceVersion(fileUrl) : null;
+            spooledFile = chunkSpool != null ? chunkSpool.resume(fileUrl, sourceVersion) : null;
+            if (spooledFile != null) {
+                allChunks = spooledFile.getChunks();
+                resumeFrom = spooledFile.getCommittedChunks();
+                logger.info("Resuming file {} from spool at chunk {}/{}", fileUrl, resumeFrom, allChunks.size());
+            } else if (streamingDownloads && chunkSpool == null) {
+                // Chunk and embed the body as it arrives; the spool needs every chunk up front instead
+                int chunkCount = fileDownloaderService.streamFile(fileUrl,
+                        body -> storeStreamedChunks(fileUrl, body, streamingChunkSize));
+                if (chunkCount == 0) {
+                    logger.warn("No chunks generated from the downloaded file");
+                    return CompletableFuture.completedFuture(null);
+                }
+                finishFile(fileUrl, chunkCount);
                 return CompletableFuture.completedFuture(null);
+            } else {
+                // Download file to temp storage using FileDownloaderService
+                tempFile = fileDownloaderService.downloadFileToTemp(fileUrl);
+                if (tempFile == null || !tempFile.exists()) {
+                    logger.warn("Failed to download file to temp storage: {}", fileUrl);
+                    return CompletableFuture.completedFuture(null);
+                }
+                
+                logger.info("Processing temp file: {} ({} bytes)", tempFile.getAbsolutePath(), tempFile.length());
+
+                // Without a spool only one batch of chunk texts needs to be held at a time
+                if (chunkSpool == null || sourceVersion == null) {
+                    int chunkCount;
+                    try (InputStream body = Files.newInputStream(tempFile.toPath())) {
+                        chunkCount = storeStreamedChunks(fileUrl, body, streamingChunkSize);
+                    }
+                    if (chunkCount == 0) {
+                        logger.warn("No chunks generated from the temp file");
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    finishFile(fileUrl, chunkCount);
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                // The spool is written with every chunk up front, so the chunk texts are all held here
+                try (Stream<String> chunks = textChunkingService.chunkStream(Files.newInputStream(tempFile.toPath()),
+                        DocumentType.fromUrl(fileUrl))) {
+                    allChunks = chunks.toList();
+                }
+                logger.info("Created {} total chunks from temp file", allChunks.size());
+                
+                if (allChunks.isEmpty()) {
+                    logger.warn("No chunks generated from the temp file");
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                // Only a versioned file gets here; without a version a spool could never be safely resumed
+                spooledFile = chunkSpool.create(fileUrl, sourceVersion, allChunks);
             }
 
             // Update total chunks count for this file
             if (monitorService != null) {
-                monitorService.incrementTotalChunks(allChunks.size());
-                logger.info("Updated total chunks count: {} for file: {}", allChunks.size(), fileUrl);
+                monitorService.incrementTotalChunks(allChunks.size() - resumeFrom);
+                logger.info("Updated total chunks count: {} for file: {}", allChunks.size() - resumeFrom, fileUrl);
             }
 
             // Process chunks in streaming batches with real-time progress updates
             int totalBatches = (allChunks.size() + streamingChunkSize - 1) / streamingChunkSize;
-            int processedChunks = 0;
+            int processedChunks = resumeFrom;
+            int failedChunks = 0;
             
-            for (int i = 0; i < allChunks.size(); i += streamingChunkSize) {
+            for (int i = resumeFrom; i < allChunks.size(); i += streamingChunkSize) {
                 int endIndex = Math.min(i + streamingChunkSize, allChunks.size());
                 List<String> batch = allChunks.subList(i, endIndex);
                 int batchNumber = (i / streamingChunkSize) + 1;
@@ -204,35 +269,14 @@ public class ScdfStreamProcessor {
                     batchNumber, totalBatches, i + 1, endIndex, fileUrl);
                 
                 // Store embeddings for this batch using parallel processing
-                if (useReferenceNumbers) {
-                    // Extract reference numbers from file URL
-                    ReferenceNumbers refNumbers = extractReferenceNumbersFromFileUrl(fileUrl);
-                    Integer refnum1 = refNumbers != null ? refNumbers.refnum1 : defaultRefnum1;
-                    Integer refnum2 = refNumbers != null ? refNumbers.refnum2 : defaultRefnum2;
-                    
-                    if (refNumbers != null) {
-                        logger.info("Using reference numbers from filename - refnum1: {}, refnum2: {}", refnum1, refnum2);
-                    } else {
-                        logger.info("Using default reference numbers - refnum1: {}, refnum2: {}", refnum1, refnum2);
-                    }
-                    
-                    // Convert to TextWithMetadata and use embedding service with metadata
-                    DocumentType documentType = DocumentType.fromUrl(fileUrl);
-                    List<EmbeddingService.TextWithMetadata> metadataBatch = batch.stream()
-                        .map(text -> {
-                            // For reference documents, don't include refnums
-                            if (documentType == DocumentType.REFERENCE) {
-                                return new EmbeddingService.TextWithMetadata(text, null, null, documentType, fileUrl);
-                            } else {
-                                return new EmbeddingService.TextWithMetadata(text, refnum1, refnum2, documentType, fileUrl);
-                            }
-                        })
-                        .collect(java.util.stream.Collectors.toList());
-                    embeddingService.storeEmbeddingsWithMetadataParallel(metadataBatch);
-                } else {
-                    embeddingService.storeEmbeddingsParallel(batch);
-                }
+                failedChunks += storeBatch(fileUrl, batch, i);
                 
+                // Every batch so far is stored; a restart resumes after this one. After a failed
+                // batch the watermark stays put so a resume stores it again.
+                if (spooledFile != null && failedChunks == 0) {
+                    spooledFile.commit(endIndex);
+                }
+
                 // Update progress metrics
                 processedChunks += batch.size();
                 if (monitorService != null) {
@@ -241,40 +285,20 @@ public class ScdfStreamProcessor {
                         processedChunks, allChunks.size(), 
                         (processedChunks * 100.0) / allChunks.size(), fileUrl);
                 }
-                
-                // Small delay to prevent overwhelming the system
-                Thread.sleep(25);
             }
-            
-            // Optionally run query after embedding if queryText is set and hasn't run yet
-            if (queryText != null && !queryText.isBlank() && queryRun.compareAndSet(false, true)) {
-                vectorQueryProcessor.runQuery(queryText, 5);
+
+            if (failedChunks > 0) {
+                throw new IllegalStateException(failedChunks + " of " + allChunks.size() + " chunks could not be stored");
             }
-            
-            // Final completion metric
-            String completedFilename = null;
-            if (monitorService != null) {
-                logger.info("File processing completed: {} chunks processed for file: {}", 
-                           allChunks.size(), fileUrl);
-                try {
-                    completedFilename = fileUrl.substring(fileUrl.lastIndexOf('/') + 1);
-                    if (completedFilename.contains("?")) {
-                        completedFilename = completedFilename.substring(0, completedFilename.indexOf('?'));
-                    }
-                } catch (Exception ignored) {}
+            embeddingService.removeStaleChunks(fileUrl, allChunks.stream()
+                .map(chunk -> EmbeddingService.chunkId(fileUrl, chunk))
+                .collect(java.util.stream.Collectors.toSet()));
+
+            if (spooledFile != null) {
+                spooledFile.complete();
             }
             
-            logger.info("Streaming temp file processing completed successfully for file: {} ({} chunks)", 
-                       fileUrl, allChunks.size());
-            
-            // Mark file as completed and emit FILE_PROCESSED event
-            if (monitorService != null) {
-                monitorService.incrementFilesProcessed();
-                if (completedFilename != null) {
-                    monitorService.publishEvent("FILE_COMPLETE", completedFilename);
-                }
-                monitorService.setCurrentFile(null); // Clear current file
-            }
+            finishFile(fileUrl, allChunks.size());
             
         } catch (Exception e) {
             logger.error("Error in streaming temp file processing for file {}: {}", fileUrl, e.getMessage(), e);
@@ -299,6 +323,74 @@ public class ScdfStreamProcessor {
         return CompletableFuture.completedFuture(null);
     }
 
+    /**
+     * Run the optional query and report a fully stored file to monitoring
+     */
+    private void finishFile(String fileUrl, int chunkCount) {
+        // Optionally run query after embedding if queryText is set and hasn't run yet
+        if (queryText != null && !queryText.isBlank() && queryRun.compareAndSet(false, true)) {
+            vectorQueryProcessor.runQuery(queryText, 5);
+        }
+        
+        // Final completion metric
+        String completedFilename = null;
+        if (monitorService != null) {
+            logger.info("File processing completed: {} chunks processed for file: {}", 
+                       chunkCount, fileUrl);
+            try {
+                completedFilename = fileUrl.substring(fileUrl.lastIndexOf('/') + 1);
+                if (completedFilename.contains("?")) {
+                    completedFilename = completedFilename.substring(0, completedFilename.indexOf('?'));
+                }
+            } catch (Exception ignored) {}
+        }
+        
+        logger.info("Streaming file processing completed successfully for file: {} ({} chunks)", 
+                   fileUrl, chunkCount);
+        
+        // Mark file as completed and emit FILE_PROCESSED event
+        if (monitorService != null) {
+            monitorService.incrementFilesProcessed();
+            if (completedFilename != null) {
+                monitorService.publishEvent("FILE_COMPLETE", completedFilename);
+            }
+            monitorService.setCurrentFile(null); // Clear current file
+        }
+    }
+
+    /**
+     * Chunk a downloaded body as it is read and store the chunks in batches, so the first
+     * batches are embedded while the rest of the file is still arriving
+     * @return Number of chunks stored
+     * @throws IllegalStateException if any chunk could not be stored, after every batch has been attempted
+     */
+    private int storeStreamedChunks(String fileUrl, InputStream body, int batchSize) {
+        try (Stream<String> chunks = textChunkingService.chunkStream(body, DocumentType.fromUrl(fileUrl))) {
+            Iterator<String> iterator = chunks.iterator();
+            int chunkCount = 0;
+            int failedChunks = 0;
+            Set<String> chunkIds = new HashSet<>();
+            while (iterator.hasNext()) {
+                List<String> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                }
+                if (monitorService != null) {
+                    monitorService.incrementTotalChunks(batch.size());
+                }
+                logger.info("Processing streamed chunks {}-{} for file: {}", chunkCount + 1, chunkCount + batch.size(), fileUrl);
+                failedChunks += storeBatch(fileUrl, batch, chunkCount);
+                batch.forEach(chunk -> chunkIds.add(EmbeddingService.chunkId(fileUrl, chunk)));
+                chunkCount += batch.size();
+            }
+            if (failedChunks > 0) {
+                throw new IllegalStateException(failedChunks + " of " + chunkCount + " chunks could not be stored");
+            }
+            embeddingService.removeStaleChunks(fileUrl, chunkIds);
+            return chunkCount;
+        }
+    }
+
     @Bean
     public Consumer<String> embedProc() {
         logger.info("Creating embedProc function bean with work limiting: max {} concurrent files", 
@@ -318,6 +410,11 @@ public class ScdfStreamProcessor {
                     return;
                 }
 
+                if (fileProcessingPipeline != null) {
+                    submitToPipeline(message);
+                    return;
+                }
+
                 // Check if we're already processing too much work
                 int currentProcessing = activeProcessingCount.get();
                 if (currentProcessing >= maxConcurrentFiles) {
@@ -365,6 +462,95 @@ public class ScdfStreamProcessor {
         };
     }
 
+    /**
+     * Hand a file to the staged pipeline. Blocks the binder thread while the instance is at
+     * capacity so that backpressure reaches the queue instead of messages being rejected.
+     */
+    private void submitToPipeline(String message) {
+        String fileUrl = extractFileUrl(message);
+        if (fileUrl == null || fileUrl.isEmpty()) {
+            logger.warn("No valid file URL found in message: {}", message);
+            return;
+        }
+
+        try {
+            processingSemaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for processing capacity, file not submitted: {}", fileUrl);
+            return;
+        }
+        activeProcessingCount.incrementAndGet();
+        String filename = extractFilename(fileUrl);
+        if (monitorService != null) {
+            monitorService.setCurrentFile(filename);
+        }
+        logger.info("Submitted {} to processing pipeline (active: {}/{})",
+                   fileUrl, activeProcessingCount.get(), maxConcurrentFiles);
+
+        // Batches are written concurrently, so the file's chunk ids are gathered in a concurrent set
+        Set<String> chunkIds = ConcurrentHashMap.newKeySet();
+        fileProcessingPipeline.submit(fileUrl, (batch, firstChunkIndex) -> {
+                batch.forEach(chunk -> chunkIds.add(EmbeddingService.chunkId(fileUrl, chunk)));
+                return storeBatch(fileUrl, batch, firstChunkIndex);
+            })
+            .whenComplete((totalChunks, error) -> {
+                try {
+                    if (error != null) {
+                        logger.error("Pipeline processing failed for file {}: {}", fileUrl, error.getMessage());
+                        if (monitorService != null) {
+                            monitorService.setLastError("Processing file " + fileUrl + ": " + error.getMessage());
+                        }
+                    } else {
+                        logger.info("Pipeline processing completed for file: {} ({} chunks)", fileUrl, totalChunks);
+                        embeddingService.removeStaleChunks(fileUrl, chunkIds);
+                        if (queryText != null && !queryText.isBlank() && queryRun.compareAndSet(false, true)) {
+                            vectorQueryProcessor.runQuery(queryText, 5);
+                        }
+                        if (monitorService != null) {
+                            monitorService.incrementFilesProcessed();
+                            monitorService.publishEvent("FILE_COMPLETE", filename);
+                        }
+                    }
+                    if (monitorService != null) {
+                        monitorService.setCurrentFile(null);
+                    }
+                } finally {
+                    activeProcessingCount.decrementAndGet();
+                    processingSemaphore.release();
+                }
+            });
+    }
+
+    /**
+     * Store one batch of chunks for a file, attaching reference numbers when enabled
+     * @param firstChunkIndex Ordinal of the batch's first chunk within the file
+     * @return Number of chunks that could not be stored
+     */
+    private int storeBatch(String fileUrl, List<String> batch, int firstChunkIndex) {
+        if (useReferenceNumbers) {
+            ReferenceNumbers refNumbers = extractReferenceNumbersFromFileUrl(fileUrl);
+            Integer refnum1 = refNumbers != null ? refNumbers.refnum1 : defaultRefnum1;
+            Integer refnum2 = refNumbers != null ? refNumbers.refnum2 : defaultRefnum2;
+            DocumentType documentType = DocumentType.fromUrl(fileUrl);
+            List<EmbeddingService.TextWithMetadata> metadataBatch = java.util.stream.IntStream.range(0, batch.size())
+                .mapToObj(index -> documentType == DocumentType.REFERENCE
+                    ? new EmbeddingService.TextWithMetadata(batch.get(index), null, null, documentType, fileUrl, firstChunkIndex + index)
+                    : new EmbeddingService.TextWithMetadata(batch.get(index), refnum1, refnum2, documentType, fileUrl, firstChunkIndex + index))
+                .collect(java.util.stream.Collectors.toList());
+            return embeddingService.storeEmbeddingsWithMetadataParallel(metadataBatch);
+        }
+        return embeddingService.storeEmbeddingsParallel(batch, fileUrl, firstChunkIndex);
+    }
+
+    private String extractFilename(String fileUrl) {
+        String filename = fileUrl.substring(fileUrl.lastIndexOf('/') + 1);
+        if (filename.contains("?")) {
+            filename = filename.substring(0, filename.indexOf('?'));
+        }
+        return filename;
+    }
+
     @Async
     public CompletableFuture<Void> processFileAsync(String fileUrl) {
         try {
@@ -380,7 +566,7 @@ public class ScdfStreamProcessor {
             logger.info("Processing document of length: {} characters from file: {}", fileContent.length(), fileUrl);
             
             // Enhanced chunking with semantic boundaries
-            List<String> allChunks = textChunkingService.chunkTextEnhanced(fileContent);
+            List<String> allChunks = textChunkingService.chunkTextEnhanced(fileContent, DocumentType.fromUrl(fileUrl));
             logger.info("Created {} chunks from file: {} using TextChunkingService", allChunks.size(), fileUrl);
             
             if (allChunks.isEmpty()) {
@@ -403,19 +589,20 @@ public class ScdfStreamProcessor {
                 
                 // Convert to TextWithMetadata and use embedding service with metadata
                 DocumentType documentType = DocumentType.fromUrl(fileUrl);
-                List<EmbeddingService.TextWithMetadata> metadataChunks = allChunks.stream()
-                    .map(text -> {
+                List<EmbeddingService.TextWithMetadata> metadataChunks = java.util.stream.IntStream.range(0, allChunks.size())
+                    .mapToObj(index -> {
+                        String text = allChunks.get(index);
                         // For reference documents, don't include refnums
                         if (documentType == DocumentType.REFERENCE) {
-                            return new EmbeddingService.TextWithMetadata(text, null, null, documentType, fileUrl);
+                            return new EmbeddingService.TextWithMetadata(text, null, null, documentType, fileUrl, index);
                         } else {
-                            return new EmbeddingService.TextWithMetadata(text, refnum1, refnum2, documentType, fileUrl);
+                            return new EmbeddingService.TextWithMetadata(text, refnum1, refnum2, documentType, fileUrl, index);
                         }
                     })
                     .collect(java.util.stream.Collectors.toList());
                 embeddingService.storeEmbeddingsWithMetadataParallel(metadataChunks);
             } else {
-                embeddingService.storeEmbeddingsParallel(allChunks);
+                embeddingService.storeEmbeddingsParallel(allChunks, fileUrl, 0);
             }
             
             // Optionally run query after embedding if queryText is set and hasn't run yet
@@ -451,7 +638,7 @@ public class ScdfStreamProcessor {
             
             // Process in smaller chunks for better responsiveness
             int streamingChunkSize = 500; // Process 500 chunks at a time
-            List<String> allChunks = textChunkingService.chunkTextEnhanced(fileContent);
+            List<String> allChunks = textChunkingService.chunkTextEnhanced(fileContent, DocumentType.fromUrl(fileUrl));
             logger.info("Created {} total chunks from file: {} using TextChunkingService", allChunks.size(), fileUrl);
             
             if (allChunks.isEmpty()) {
@@ -463,6 +650,7 @@ public class ScdfStreamProcessor {
             for (int i = 0; i < allChunks.size(); i += streamingChunkSize) {
                 int endIndex = Math.min(i + streamingChunkSize, allChunks.size());
                 List<String> batch = allChunks.subList(i, endIndex);
+                int firstChunkIndex = i;
                 
                 logger.info("Processing batch {}/{} (chunks {}-{})", 
                     (i / streamingChunkSize) + 1, 
@@ -478,19 +666,20 @@ public class ScdfStreamProcessor {
                     
                     // Convert to TextWithMetadata and use embedding service with metadata
                     DocumentType documentType = DocumentType.fromUrl(fileUrl);
-                    List<EmbeddingService.TextWithMetadata> metadataBatch = batch.stream()
-                        .map(text -> {
+                    List<EmbeddingService.TextWithMetadata> metadataBatch = java.util.stream.IntStream.range(0, batch.size())
+                        .mapToObj(index -> {
+                            String text = batch.get(index);
                             // For reference documents, don't include refnums
                             if (documentType == DocumentType.REFERENCE) {
-                                return new EmbeddingService.TextWithMetadata(text, null, null, documentType, fileUrl);
+                                return new EmbeddingService.TextWithMetadata(text, null, null, documentType, fileUrl, firstChunkIndex + index);
                             } else {
-                                return new EmbeddingService.TextWithMetadata(text, refnum1, refnum2, documentType, fileUrl);
+                                return new EmbeddingService.TextWithMetadata(text, refnum1, refnum2, documentType, fileUrl, firstChunkIndex + index);
                             }
                         })
                         .collect(java.util.stream.Collectors.toList());
                     embeddingService.storeEmbeddingsWithMetadataParallel(metadataBatch);
                 } else {
-                    embeddingService.storeEmbeddingsParallel(batch);
+                    embeddingService.storeEmbeddingsParallel(batch, fileUrl, firstChunkIndex);
                 }
                 
                 // Small delay to prevent overwhelming the system
@@ -529,7 +718,7 @@ public class ScdfStreamProcessor {
             logger.info("Processing document of length: {} characters from file: {}", fileContent.length(), fileUrl);
             
             // Enhanced chunking with semantic boundaries
-            List<String> allChunks = textChunkingService.chunkTextEnhanced(fileContent);
+            List<String> allChunks = textChunkingService.chunkTextEnhanced(fileContent, DocumentType.fromUrl(fileUrl));
             logger.info("Created {} chunks from file: {} using TextChunkingService", allChunks.size(), fileUrl);
             
             if (allChunks.isEmpty()) {
@@ -546,6 +735,7 @@ public class ScdfStreamProcessor {
             for (int i = 0; i < allChunks.size(); i += batchSize) {
                 int endIndex = Math.min(i + batchSize, allChunks.size());
                 List<String> batch = allChunks.subList(i, endIndex);
+                int firstChunkIndex = i;
                 
                 logger.info("Processing batch {}/{} (chunks {}-{})", 
                     (i / batchSize) + 1, totalBatches, i + 1, endIndex);
@@ -554,19 +744,20 @@ public class ScdfStreamProcessor {
                 if (useReferenceNumbers) {
                     // Convert to TextWithMetadata and use embedding service with metadata
                     DocumentType documentType = DocumentType.fromUrl(fileUrl);
-                    List<EmbeddingService.TextWithMetadata> metadataBatch = batch.stream()
-                        .map(text -> {
+                    List<EmbeddingService.TextWithMetadata> metadataBatch = java.util.stream.IntStream.range(0, batch.size())
+                        .mapToObj(index -> {
+                            String text = batch.get(index);
                             // For reference documents, don't include refnums
                             if (documentType == DocumentType.REFERENCE) {
-                                return new EmbeddingService.TextWithMetadata(text, null, null, documentType, fileUrl);
+                                return new EmbeddingService.TextWithMetadata(text, null, null, documentType, fileUrl, firstChunkIndex + index);
                             } else {
-                                return new EmbeddingService.TextWithMetadata(text, defaultRefnum1, defaultRefnum2, documentType, fileUrl);
+                                return new EmbeddingService.TextWithMetadata(text, defaultRefnum1, defaultRefnum2, documentType, fileUrl, firstChunkIndex + index);
                             }
                         })
                         .collect(java.util.stream.Collectors.toList());
                     embeddingService.storeEmbeddingsWithMetadataParallel(metadataBatch);
                 } else {
-                    embeddingService.storeEmbeddingsParallel(batch);
+                    embeddingService.storeEmbeddingsParallel(batch, fileUrl, firstChunkIndex);
                 }
                 
                 // Small delay to prevent overwhelming the system
@@ -0,0 +1,188 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD (additive increase, multiplicative decrease) limit on in-flight embedding batches.
+ * The limit grows by roughly one per round of successful batches while latency stays
+ * within a tolerance of its moving average, and is cut multiplicatively when the
+ * provider throttles (HTTP 429) or times out. Callers block in {@link #acquire()}
+ * until a permit is available, which applies backpressure to file processing.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+    private static final double LATENCY_SMOOTHING = 0.05;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private double averageLatencyNanos;
+
+    @Autowired
+    public AdaptiveConcurrencyLimiter(@Value("${app.embedding.concurrency.initial-limit:5}") int initialLimit,
+                                      @Value("${app.embedding.concurrency.min-limit:1}") int minLimit,
+                                      @Value("${app.embedding.concurrency.max-limit:32}") int maxLimit,
+                                      @Value("${app.embedding.concurrency.backoff-ratio:0.5}") double backoffRatio,
+                                      @Value("${app.embedding.concurrency.latency-tolerance:2.0}") double latencyTolerance,
+                                      MeterRegistry meterRegistry) {
+        this(initialLimit, minLimit, maxLimit, backoffRatio, latencyTolerance);
+        Gauge.builder("embeddings.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive limit on in-flight embedding batches")
+                .register(meterRegistry);
+        Gauge.builder("embeddings.concurrency.in-flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Embedding batches currently in flight")
+                .register(meterRegistry);
+        logger.info("AdaptiveConcurrencyLimiter initialized - initial: {}, min: {}, max: {}, backoff: {}",
+                   initialLimit, minLimit, maxLimit, backoffRatio);
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double backoffRatio, double latencyTolerance) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Concurrency limits must satisfy 1 <= min <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Block until the number of in-flight batches is below the current limit
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                permitAvailable.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a permit once a batch has finished.
+     * A success with stable latency grows the limit additively; throttling or a timeout
+     * shrinks it multiplicatively. Other failures leave the limit unchanged.
+     * @param latencyNanos Time the batch took
+     * @param failure The failure, or {@code null} if the batch succeeded
+     */
+    public void release(long latencyNanos, Throwable failure) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (failure == null) {
+                onSuccess(latencyNanos);
+            } else if (isThrottleOrTimeout(failure)) {
+                double previous = limit;
+                limit = Math.max(minLimit, limit * backoffRatio);
+                logger.warn("Embedding provider throttled or timed out - concurrency limit {} -> {}",
+                           (int) previous, (int) limit);
+            }
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess(long latencyNanos) {
+        boolean stable = averageLatencyNanos == 0 || latencyNanos <= averageLatencyNanos * latencyTolerance;
+        averageLatencyNanos = averageLatencyNanos == 0
+                ? latencyNanos
+                : averageLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - averageLatencyNanos);
+        if (stable && limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Determine whether a failure indicates provider throttling or a timeout. Throttling is
+     * recognised by an HTTP 429 status anywhere in the cause chain, never by message text.
+     */
+    public static boolean isThrottleOrTimeout(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TimeoutException || t instanceof SocketTimeoutException || t instanceof HttpTimeoutException) {
+                return true;
+            }
+            if (statusCode(t) == TOO_MANY_REQUESTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * HTTP status carried by a client exception, or -1 if there is none. Spring AI's retry
+     * handler keeps only the status, as the "<status> - <body>" prefix of its message.
+     */
+    private static int statusCode(Throwable error) {
+        if (error instanceof HttpStatusCodeException httpError) {
+            return httpError.getStatusCode().value();
+        }
+        if (error instanceof WebClientResponseException webClientError) {
+            return webClientError.getStatusCode().value();
+        }
+        if ((error instanceof TransientAiException || error instanceof NonTransientAiException) && error.getMessage() != null) {
+            String message = error.getMessage();
+            int separator = message.indexOf(" - ");
+            if (separator == 3) {
+                try {
+                    return Integer.parseInt(message.substring(0, separator));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,99 @@
+package com.baskettecase.embedProc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EmbeddingModel decorator that consults the {@link EmbeddingCache} before calling the
+ * underlying model. Only texts that miss the cache are sent to the provider, so repeated
+ * boilerplate chunks and re-sent files cost no embedding calls.
+ * Because the vector store embeds through this model, every EmbeddingService path benefits.
+ * Keys include the model and dimensions of per-request options. Responses answered by the
+ * secondary of a {@link HedgedEmbeddingModel} are returned but not cached, as they come from a
+ * different model than the one the keys name.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCache cache;
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, EmbeddingCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> inputs = request.getInstructions();
+        List<String> keys = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+            keys.add(cache.keyFor(input, request.getOptions()));
+        }
+
+        Map<String, float[]> cached = cache.getAll(keys);
+
+        // Collect distinct misses so duplicate texts inside one request are embedded once
+        Map<String, String> missesByKey = new LinkedHashMap<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            if (!cached.containsKey(keys.get(i))) {
+                missesByKey.putIfAbsent(keys.get(i), inputs.get(i));
+            }
+        }
+
+        Map<String, float[]> computed = new LinkedHashMap<>();
+        if (!missesByKey.isEmpty()) {
+            List<String> missKeys = new ArrayList<>(missesByKey.keySet());
+            EmbeddingResponse response = delegate.call(
+                    new EmbeddingRequest(new ArrayList<>(missesByKey.values()), request.getOptions()));
+            List<Embedding> results = response.getResults();
+            for (int i = 0; i < results.size(); i++) {
+                computed.put(missKeys.get(i), results.get(i).getOutput());
+            }
+            if (!HedgedEmbeddingModel.answeredBySecondary(response)) {
+                cache.putAll(computed);
+            }
+        }
+
+        logger.debug("Embedding request for {} inputs: {} served from cache, {} sent to model",
+                    inputs.size(), inputs.size() - countMisses(keys, cached), missesByKey.size());
+
+        List<Embedding> embeddings = new ArrayList<>(inputs.size());
+        for (int i = 0; i < keys.size(); i++) {
+            float[] vector = cached.containsKey(keys.get(i)) ? cached.get(keys.get(i)) : computed.get(keys.get(i));
+            embeddings.add(new Embedding(vector, i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private int countMisses(List<String> keys, Map<String, float[]> cached) {
+        int count = 0;
+        for (String key : keys) {
+            if (!cached.containsKey(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,410 @@
+package com.baskettecase.embedProc.service;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Packs paragraphs into chunks of up to maxWordsPerChunk meaningful words,
+ * dropping chunks with fewer than minMeaningfulWords.
+ * With a tokenizer, the maximum is the tokenizer's token budget instead of maxWordsPerChunk.
+ * With overlap enabled, each chunk following an emitted chunk starts with up to overlapWords of
+ * that chunk's last words. The overlap counts against the limit: when the next paragraph would
+ * not fit with it, its oldest words are dropped until it does, and the pieces of a split
+ * paragraph leave room for up to half the limit of overlap.
+ * In content-defined mode a chunk also ends after a paragraph chosen by
+ * {@link ContentDefinedBoundaries#isContentBoundary}.
+ */
+final class ChunkPacker implements Iterator<String> {
+
+    // Paragraphs are joined by a blank line, which BPE encodings spend a token on
+    private static final int SEPARATOR_TOKENS = 1;
+    private static final String PARAGRAPH_JOINER = "\n\n";
+
+    private final TextChunkingService chunker;
+    private final int maxWordsPerChunk;
+    private final int minMeaningfulWords;
+    private final boolean splitOversizedParagraphs;
+    private final int contentDefinedMinWords;
+    private final int contentDefinedTargetWords;
+    private final Iterator<? extends CharSequence> paragraphs;
+    private final PrimitiveIterator.OfInt wordCounts;
+    private final ChunkingStrategy strategy;
+    // Null when no metrics should be recorded
+    private final DocumentType documentType;
+    private final boolean timed;
+    private final StringBuilder currentChunkBuilder = new StringBuilder();
+    private final TrailingWords trailingWords;
+    private int currentWordCount = 0;
+    private int currentParagraphs = 0;
+    private int currentOverlapWords = 0;
+    // The overlap at the start of the builder: its length and meaningful words
+    private int overlapLength;
+    private int overlapMeaningfulWords;
+    // Token mode: exact tokens of the builder before exactUpTo, overlap included, pessimistic estimate after it
+    private final ChunkTokenizer tokenizer;
+    private int exactTokens;
+    private int estimatedTokens;
+    private int exactUpTo;
+    private int paragraphTokens;
+    private boolean paragraphCountedExactly;
+    // Remaining pieces of an oversized paragraph, fed to the packer in place of paragraphs
+    private ParagraphPieces pieces;
+    // The whitespace before the first piece when the pieces continue a cut streamed paragraph
+    private CharSequence piecesJoiner;
+    private final ParagraphReader reader;
+    // End the chunk before the next paragraph: a content-defined boundary or a new section
+    private boolean boundaryBeforeNextParagraph;
+    private String nextChunk;
+    private boolean exhausted;
+    private long elapsedNanos;
+
+    /**
+     * @param chunker Supplies the limits, the strategy and tokenizer for the document type, and the metrics
+     * @param wordCounts Meaningful word counts of the paragraphs when already measured, or null
+     * @param documentType Type of the source document, or null to record no metrics
+     * @param timed Whether to record the chunk stage time once the paragraphs are exhausted
+     */
+    ChunkPacker(TextChunkingService chunker, Iterator<? extends CharSequence> paragraphs, PrimitiveIterator.OfInt wordCounts,
+                DocumentType documentType, boolean timed) {
+        this.chunker = chunker;
+        this.maxWordsPerChunk = chunker.getMaxWordsPerChunk();
+        this.minMeaningfulWords = chunker.getMinMeaningfulWords();
+        this.splitOversizedParagraphs = chunker.isSplitOversizedParagraphs();
+        this.contentDefinedMinWords = chunker.getContentDefinedMinWords();
+        this.contentDefinedTargetWords = chunker.getContentDefinedTargetWords();
+        this.trailingWords = chunker.getOverlapWords() > 0 ? new TrailingWords(chunker.getOverlapWords()) : null;
+        this.paragraphs = paragraphs;
+        this.wordCounts = wordCounts;
+        this.documentType = documentType;
+        this.timed = timed;
+        this.strategy = chunker.strategyFor(documentType);
+        this.tokenizer = chunker.tokenizerFor(strategy);
+        this.reader = paragraphs instanceof ParagraphReader paragraphReader ? paragraphReader : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextChunk == null && !exhausted) {
+            long start = System.nanoTime();
+            while (nextChunk == null && !exhausted) {
+                advance();
+            }
+            elapsedNanos += System.nanoTime() - start;
+            if (exhausted && timed && documentType != null) {
+                chunker.recordChunkTime(documentType, elapsedNanos);
+            }
+        }
+        return nextChunk != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String chunk = nextChunk;
+        nextChunk = null;
+        return chunk;
+    }
+
+    private void advance() {
+        while (true) {
+            CharSequence paragraph;
+            int paragraphWordCount;
+            CharSequence joiner = PARAGRAPH_JOINER;
+            if (pieces != null && pieces.hasNext()) {
+                // Pieces of one paragraph keep the whitespace between them
+                if (pieces.index() > 0) {
+                    joiner = pieces.whitespaceBefore();
+                } else if (piecesJoiner != null) {
+                    joiner = piecesJoiner;
+                }
+                paragraph = pieces.next();
+                paragraphWordCount = TextChunkingService.countMeaningfulWords(paragraph);
+            } else {
+                pieces = null;
+                if (!paragraphs.hasNext()) {
+                    break;
+                }
+                CharSequence untrimmed = paragraphs.next();
+                int from = 0;
+                int to = untrimmed.length();
+                while (from < to && untrimmed.charAt(from) <= ' ') from++;
+                while (to > from && untrimmed.charAt(to - 1) <= ' ') to--;
+                if (from == to) continue;
+                paragraph = untrimmed.subSequence(from, to);
+                boolean part = reader != null && reader.lastIsPart();
+                CharSequence partJoiner = part ? reader.lastJoiner() : null;
+                piecesJoiner = null;
+                if (partJoiner == null && strategy.startsSection(paragraph)) {
+                    boundaryBeforeNextParagraph = true;
+                }
+                if (part) {
+                    // A part of a streamed paragraph too long to buffer, always split into pieces
+                    int[] units = strategy.units(paragraph);
+                    pieces = newPieces(paragraph, units != null ? units : ParagraphPieces.sentenceBounds(paragraph), units == null);
+                    piecesJoiner = partJoiner;
+                    if (partJoiner == null && documentType != null) {
+                        chunker.recordOversizedParagraph(documentType, strategy, pieces.splitsUnits() ? "word" : "sentence");
+                    }
+                    continue;
+                }
+                paragraphWordCount = wordCounts != null ? wordCounts.nextInt() : TextChunkingService.countMeaningfulWords(paragraph);
+
+                int[] units = strategy.units(paragraph);
+                if (units != null) {
+                    pieces = newPieces(paragraph, units, false);
+                    if (pieces.splitsUnits() && documentType != null) {
+                        chunker.recordOversizedParagraph(documentType, strategy, "word");
+                    }
+                    continue;
+                }
+                if (splitOversizedParagraphs && isOversized(paragraph, paragraphWordCount)) {
+                    pieces = newPieces(paragraph, ParagraphPieces.sentenceBounds(paragraph), true);
+                    if (documentType != null) {
+                        chunker.recordOversizedParagraph(documentType, strategy, pieces.splitsUnits() ? "word" : "sentence");
+                    }
+                    continue;
+                }
+            }
+
+            String completed = null;
+            if (boundaryBeforeNextParagraph && currentParagraphs > 0) {
+                completed = finishChunk();
+            }
+            boundaryBeforeNextParagraph = false;
+            boolean fits = fits(paragraph, paragraphWordCount, joiner);
+            if (!fits && (tokenizer != null ? currentParagraphs > 0 : currentWordCount > 0)) {
+                completed = finishChunk();
+                // Recounted after the overlap, or without the joiner if the paragraph now starts the chunk
+                fits = fits(paragraph, paragraphWordCount, joiner);
+            }
+            while (!fits && overlapLength > 0) {
+                dropOldestOverlapWord();
+                fits = fits(paragraph, paragraphWordCount, joiner);
+            }
+
+            if (currentChunkBuilder.length() > 0) {
+                currentChunkBuilder.append(joiner);
+            }
+            if (trailingWords != null) {
+                trailingWords.addWordsOf(paragraph, currentChunkBuilder.length());
+            }
+            currentChunkBuilder.append(paragraph);
+            currentWordCount += paragraphWordCount;
+            currentParagraphs++;
+            if (contentDefinedTargetWords > 0 && currentWordCount >= contentDefinedMinWords) {
+                boundaryBeforeNextParagraph = ContentDefinedBoundaries.isContentBoundary(paragraph, paragraphWordCount, contentDefinedTargetWords);
+            }
+            if (paragraphCountedExactly) {
+                exactTokens += paragraphTokens;
+                exactUpTo = currentChunkBuilder.length();
+            } else {
+                estimatedTokens += paragraphTokens;
+            }
+
+            if (completed != null) {
+                nextChunk = completed;
+                return;
+            }
+        }
+
+        exhausted = true;
+        if (currentParagraphs > 0) {
+            nextChunk = finishChunk();
+        }
+    }
+
+    private ParagraphPieces newPieces(CharSequence paragraph, int[] units, boolean packUnits) {
+        int limit = tokenizer != null ? tokenizer.getMaxTokensPerChunk() : maxWordsPerChunk;
+        // Leave room for the overlap, a word or token per overlap word, up to half the limit
+        if (trailingWords != null) {
+            limit -= Math.min(chunker.getOverlapWords(), limit / 2);
+        }
+        return tokenizer != null
+                ? new ParagraphPieces(paragraph, units, packUnits, limit, piece -> tokenizer.count(piece.toString()))
+                : new ParagraphPieces(paragraph, units, packUnits, limit, TextChunkingService::countMeaningfulWords);
+    }
+
+    /**
+     * Whether the paragraph still fits the chunk, overlap included, in words or in tokens
+     */
+    private boolean fits(CharSequence paragraph, int paragraphWordCount, CharSequence joiner) {
+        if (tokenizer != null) {
+            return fitsTokenBudget(paragraph, joiner);
+        }
+        return overlapMeaningfulWords + currentWordCount + paragraphWordCount <= maxWordsPerChunk;
+    }
+
+    /**
+     * Drop the first word of the overlap, and the whitespace after it
+     */
+    private void dropOldestOverlapWord() {
+        int cut = 0;
+        while (cut < overlapLength && !TextChunkingService.isRegexWhitespace(currentChunkBuilder.charAt(cut))) cut++;
+        while (cut < currentChunkBuilder.length() && TextChunkingService.isRegexWhitespace(currentChunkBuilder.charAt(cut))) cut++;
+        currentChunkBuilder.delete(0, cut);
+        trailingWords.dropBefore(cut);
+        trailingWords.shift(-cut);
+        overlapLength = Math.max(overlapLength - cut, 0);
+        overlapMeaningfulWords = TextChunkingService.countMeaningfulWords(currentChunkBuilder.subSequence(0, overlapLength));
+        currentOverlapWords--;
+        if (tokenizer != null) {
+            // Only the overlap is left here, as a chunk with paragraphs of its own is finished instead
+            exactTokens = tokenizer.count(currentChunkBuilder.toString());
+            estimatedTokens = 0;
+            exactUpTo = currentChunkBuilder.length();
+        }
+    }
+
+    /**
+     * Whether the paragraph alone is over the chunk limit, in words or in tokens
+     */
+    private boolean isOversized(CharSequence paragraph, int paragraphWordCount) {
+        if (tokenizer == null) {
+            return paragraphWordCount > maxWordsPerChunk;
+        }
+        int maxTokens = tokenizer.getMaxTokensPerChunk();
+        return ChunkTokenizer.pessimisticEstimate(paragraph) > maxTokens && tokenizer.count(paragraph.toString()) > maxTokens;
+    }
+
+    /**
+     * Whether the paragraph, with the joiner before it, still fits the chunk's token budget.
+     * A blank line between paragraphs costs a token of its own; other whitespace, between the
+     * pieces of a paragraph, is counted with the piece, as a space before a word can change its tokens.
+     * BPE counting is skipped while a pessimistic estimate of the chunk fits, which is the
+     * common case for most of every chunk. Once it does not, the estimated part is counted
+     * exactly, once, and paragraphs are counted exactly until the chunk is flushed.
+     */
+    private boolean fitsTokenBudget(CharSequence paragraph, CharSequence joiner) {
+        boolean joined = currentChunkBuilder.length() > 0;
+        int separatorTokens = joined && joiner == PARAGRAPH_JOINER ? SEPARATOR_TOKENS : 0;
+        CharSequence counted = joined && joiner != PARAGRAPH_JOINER ? joiner.toString() + paragraph : paragraph;
+        int maxTokens = tokenizer.getMaxTokensPerChunk();
+        paragraphTokens = ChunkTokenizer.pessimisticEstimate(counted) + separatorTokens;
+        paragraphCountedExactly = false;
+        if (exactTokens + estimatedTokens + paragraphTokens <= maxTokens) {
+            return true;
+        }
+
+        if (estimatedTokens > 0) {
+            exactTokens += tokenizer.count(currentChunkBuilder.substring(exactUpTo));
+            estimatedTokens = 0;
+            exactUpTo = currentChunkBuilder.length();
+        }
+        paragraphTokens = tokenizer.count(counted.toString()) + separatorTokens;
+        paragraphCountedExactly = true;
+        return exactTokens + paragraphTokens <= maxTokens;
+    }
+
+    /**
+     * @return The assembled chunk, or null if it has too few meaningful words
+     */
+    private String finishChunk() {
+        // Paragraphs are trimmed and joined by blank lines, so the running count is the count of the
+        // words new to this chunk; the overlap does not count towards the minimum
+        boolean meaningful = currentWordCount >= minMeaningfulWords;
+        String chunk = meaningful ? currentChunkBuilder.toString() : null;
+        if (meaningful && documentType != null) {
+            chunker.recordChunkWords(documentType, strategy, currentWordCount, currentOverlapWords);
+        }
+
+        if (meaningful && trailingWords != null && trailingWords.size() > 0) {
+            // Keep only the trailing words as the start of the next chunk
+            int overlapStart = trailingWords.oldestStart();
+            currentChunkBuilder.delete(0, overlapStart);
+            trailingWords.shift(-overlapStart);
+            currentOverlapWords = trailingWords.size();
+        } else {
+            currentChunkBuilder.setLength(0);
+            if (trailingWords != null) {
+                trailingWords.clear();
+            }
+            currentOverlapWords = 0;
+        }
+        overlapLength = currentChunkBuilder.length();
+        overlapMeaningfulWords = overlapLength > 0 ? TextChunkingService.countMeaningfulWords(currentChunkBuilder) : 0;
+        currentWordCount = 0;
+        currentParagraphs = 0;
+        exactTokens = tokenizer != null && overlapLength > 0 ? tokenizer.count(currentChunkBuilder.toString()) : 0;
+        estimatedTokens = 0;
+        exactUpTo = currentChunkBuilder.length();
+        return chunk;
+    }
+
+    /**
+     * Fixed-size ring of the start offsets, within the chunk being assembled, of its last words.
+     * Words are runs of non-whitespace characters.
+     */
+    static final class TrailingWords {
+        private final int[] starts;
+        private final int[] scratch;
+        private int head;
+        private int size;
+
+        TrailingWords(int capacity) {
+            this.starts = new int[capacity];
+            this.scratch = new int[capacity];
+        }
+
+        /**
+         * Record the words of a paragraph appended at the given offset.
+         * Only its last words can remain in the ring, so the paragraph is scanned backwards
+         * and the scan stops once the ring's capacity is reached.
+         */
+        void addWordsOf(CharSequence paragraph, int offset) {
+            int found = 0;
+            int i = paragraph.length();
+            while (found < starts.length) {
+                while (i > 0 && TextChunkingService.isRegexWhitespace(paragraph.charAt(i - 1))) {
+                    i--;
+                }
+                if (i == 0) {
+                    break;
+                }
+                while (i > 0 && !TextChunkingService.isRegexWhitespace(paragraph.charAt(i - 1))) {
+                    i--;
+                }
+                scratch[found++] = offset + i;
+            }
+            for (int k = found - 1; k >= 0; k--) {
+                if (size < starts.length) {
+                    starts[(head + size++) % starts.length] = scratch[k];
+                } else {
+                    starts[head] = scratch[k];
+                    head = (head + 1) % starts.length;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int oldestStart() {
+            return starts[head];
+        }
+
+        /**
+         * Forget the words starting before the offset, which are the oldest
+         */
+        void dropBefore(int offset) {
+            while (size > 0 && starts[head] < offset) {
+                head = (head + 1) % starts.length;
+                size--;
+            }
+        }
+
+        void shift(int delta) {
+            for (int k = 0; k < size; k++) {
+                starts[(head + k) % starts.length] += delta;
+            }
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+}
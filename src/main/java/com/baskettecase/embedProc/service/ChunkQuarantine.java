@@ -0,0 +1,156 @@
+package com.baskettecase.embedProc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds chunks that still fail to embed or store after their batch has been bisected
+ * down to a single chunk. Quarantined chunks are written with their error to either a
+ * JSON-lines file or a side table so they can be inspected and replayed later.
+ * Presence of this bean enables failure isolation in {@link EmbeddingService}.
+ */
+@Service
+@Profile({"standalone", "cloud"})
+@ConditionalOnProperty(name = "app.embedding.failure-isolation.enabled", havingValue = "true")
+public class ChunkQuarantine {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkQuarantine.class);
+
+    private final ObjectMapper objectMapper;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean useTable;
+    private final String tableName;
+    private final Path quarantineFile;
+    private final Counter quarantinedCounter;
+
+    public ChunkQuarantine(ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Autowired(required = false) JdbcTemplate jdbcTemplate,
+                           @Value("${app.embedding.quarantine.target:file}") String target,
+                           @Value("${app.embedding.quarantine.table-name:embedding_quarantine}") String tableName,
+                           @Value("${app.embedding.quarantine.directory:./data/quarantine}") String directory) {
+        this.objectMapper = objectMapper;
+        this.jdbcTemplate = jdbcTemplate;
+        this.useTable = "table".equalsIgnoreCase(target) && jdbcTemplate != null;
+        this.tableName = tableName;
+        this.quarantineFile = Paths.get(directory, "quarantined-chunks.jsonl");
+        this.quarantinedCounter = Counter.builder("embeddings.quarantined")
+                .description("Chunks quarantined after failure isolation")
+                .register(meterRegistry);
+
+        if (useTable) {
+            initializeTable();
+        }
+        logger.info("ChunkQuarantine initialized - writing to {}", useTable ? "table " + tableName : quarantineFile.toAbsolutePath());
+    }
+
+    /**
+     * Determine whether a failure can be caused by the chunks themselves, i.e. a 4xx or validation
+     * response from the embedding provider. Database, connection, server, authentication and
+     * throttling errors are not, and retrying a smaller batch would not avoid them.
+     */
+    public static boolean isCausedByInput(Throwable error) {
+        if (AdaptiveConcurrencyLimiter.isThrottleOrTimeout(error)) {
+            return false;
+        }
+        boolean input = false;
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof SQLException || t instanceof DataAccessException || t instanceof IOException) {
+                return false;
+            }
+            if (t instanceof HttpClientErrorException httpError) {
+                int status = httpError.getStatusCode().value();
+                if (status == 401 || status == 403 || status == 404 || status == 407) {
+                    return false;
+                }
+                input = true;
+            } else if (t instanceof NonTransientAiException || t instanceof IllegalArgumentException) {
+                // Spring AI reports provider errors as "<status> - <body>"
+                String message = t.getMessage();
+                if (message != null && message.matches("(?s)40[1347]\\b.*")) {
+                    return false;
+                }
+                input = true;
+            }
+        }
+        return input;
+    }
+
+    /**
+     * Record a chunk that could not be embedded or stored
+     * @param id Document id of the chunk
+     * @param text Chunk text
+     * @param metadata Chunk metadata
+     * @param error The failure from the last attempt
+     */
+    public void quarantine(String id, String text, Map<String, Object> metadata, Exception error) {
+        quarantinedCounter.increment();
+        Object sourcePath = metadata != null ? metadata.get("sourcePath") : null;
+        logger.warn("Quarantining chunk {} from {} ({} chars): {}", id, sourcePath,
+                   text != null ? text.length() : 0, error.getMessage());
+        try {
+            if (useTable) {
+                jdbcTemplate.update("INSERT INTO " + tableName + " (chunk_id, source_path, content, metadata, error) " +
+                        "VALUES (?, ?, ?, ?::json, ?)",
+                        id, sourcePath != null ? sourcePath.toString() : null, text,
+                        objectMapper.writeValueAsString(metadata), error.getMessage());
+            } else {
+                appendToFile(id, text, metadata, error);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to quarantine chunk {}: {}", id, e.getMessage());
+        }
+    }
+
+    private synchronized void appendToFile(String id, String text, Map<String, Object> metadata, Exception error) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("id", id);
+        record.put("quarantinedAt", OffsetDateTime.now(ZoneOffset.UTC).toString());
+        record.put("error", error.getMessage());
+        record.put("metadata", metadata);
+        record.put("content", text);
+
+        Files.createDirectories(quarantineFile.getParent());
+        Files.writeString(quarantineFile, objectMapper.writeValueAsString(record) + System.lineSeparator(),
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void initializeTable() {
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                    "id bigserial PRIMARY KEY, " +
+                    "chunk_id varchar(64), " +
+                    "source_path text, " +
+                    "content text, " +
+                    "metadata json, " +
+                    "error text, " +
+                    "quarantined_at timestamptz NOT NULL DEFAULT now())");
+        } catch (Exception e) {
+            logger.error("Failed to initialize quarantine table {}: {}", tableName, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.baskettecase.embedProc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead spool of chunked text on local disk.
+ * Each source file gets a directory holding its chunks in size-capped segment files, a manifest
+ * written once all segments are durable, and a watermark of how many chunks have been stored.
+ * After a crash, a redelivered file resumes from the first uncommitted batch without being
+ * downloaded or chunked again, provided the source version recorded with the spool still matches.
+ * The directory is removed once the file completes.
+ */
+@Service
+@Profile("cloud")
+@ConditionalOnProperty(name = "app.spool.enabled", havingValue = "true")
+public class ChunkSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkSpool.class);
+
+    private static final String MANIFEST = "manifest.json";
+    private static final String WATERMARK = "watermark";
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private final ObjectMapper objectMapper;
+    private final Path spoolDirectory;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    public ChunkSpool(ObjectMapper objectMapper,
+                      @Value("${app.spool.directory:./data/spool}") String directory,
+                      @Value("${app.spool.segment-size:16MB}") DataSize segmentSize,
+                      @Value("${app.spool.max-size:1GB}") DataSize maxSize,
+                      @Value("${app.spool.max-age:7d}") Duration maxAge) throws IOException {
+        this.objectMapper = objectMapper;
+        this.spoolDirectory = Paths.get(directory);
+        this.segmentBytes = segmentSize.toBytes();
+        this.maxBytes = maxSize.toBytes();
+
+        Files.createDirectories(spoolDirectory);
+        int pending = recover(maxAge);
+        logger.info("ChunkSpool initialized at {} - {} pending files, {} bytes used of {}",
+                   spoolDirectory.toAbsolutePath(), pending, usedBytes.get(), maxBytes);
+    }
+
+    /**
+     * Find a complete spool for the source left behind by an earlier attempt
+     * @param sourceKey URL or path identifying the source file
+     * @param sourceVersion Current version of the source, such as its ETag; null if unknown
+     * @return The spooled file, or null if there is none or the source has changed since
+     */
+    public SpooledFile resume(String sourceKey, String sourceVersion) {
+        Path dir = directoryFor(sourceKey);
+        if (!Files.exists(dir.resolve(MANIFEST))) {
+            return null;
+        }
+        try {
+            Map<?, ?> manifest = objectMapper.readValue(dir.resolve(MANIFEST).toFile(), Map.class);
+            // Chunks of an unknown or different version of the source would be stale
+            if (sourceVersion == null || !sourceVersion.equals(manifest.get("version"))) {
+                logger.info("Discarding spool for {}: source version {} does not match spooled {}",
+                           sourceKey, sourceVersion, manifest.get("version"));
+                delete(dir);
+                return null;
+            }
+            int chunkCount = ((Number) manifest.get("chunks")).intValue();
+            List<String> chunks = readSegments(dir, chunkCount);
+            int committed = readWatermark(dir);
+            logger.info("Resuming {} from spool at chunk {}/{}", sourceKey, committed, chunkCount);
+            return new SpooledFile(sourceKey, dir, chunks, committed);
+        } catch (Exception e) {
+            logger.warn("Discarding unreadable spool for {}: {}", sourceKey, e.getMessage());
+            delete(dir);
+            return null;
+        }
+    }
+
+    /**
+     * Spool the chunks of a source file before they are embedded
+     * @param sourceKey URL or path identifying the source file
+     * @param sourceVersion Version of the source the chunks were made from; null if unknown
+     * @param chunks Chunk texts in file order
+     * @return The spooled file, or null if the spool is full or could not be written
+     */
+    public SpooledFile create(String sourceKey, String sourceVersion, List<String> chunks) {
+        Path dir = directoryFor(sourceKey);
+        delete(dir);
+
+        // The cap is approximate: sizes are estimated from char counts and concurrent creates may overshoot
+        long estimatedBytes = 0;
+        for (String chunk : chunks) {
+            estimatedBytes += Integer.BYTES + chunk.length();
+        }
+        if (usedBytes.get() + estimatedBytes > maxBytes) {
+            logger.warn("Spool full ({} of {} bytes used), processing {} without a spool", usedBytes.get(), maxBytes, sourceKey);
+            return null;
+        }
+
+        try {
+            Files.createDirectories(dir);
+            long written = writeSegments(dir, chunks);
+            writeWatermark(dir, 0);
+
+            Map<String, Object> manifest = new LinkedHashMap<>();
+            manifest.put("source", sourceKey);
+            manifest.put("version", sourceVersion);
+            manifest.put("chunks", chunks.size());
+            manifest.put("createdAt", Instant.now().toString());
+            writeDurably(dir, MANIFEST, objectMapper.writeValueAsBytes(manifest));
+
+            usedBytes.addAndGet(written);
+            return new SpooledFile(sourceKey, dir, chunks, 0);
+        } catch (IOException e) {
+            logger.warn("Failed to spool {}, processing without a spool: {}", sourceKey, e.getMessage());
+            delete(dir);
+            return null;
+        }
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private long writeSegments(Path dir, List<String> chunks) throws IOException {
+        long total = 0;
+        int segment = 0;
+        int index = 0;
+        while (index < chunks.size()) {
+            Path segmentFile = dir.resolve(String.format("%s%06d", SEGMENT_PREFIX, segment++));
+            try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                OutputStream stream = Channels.newOutputStream(channel);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                // Every segment holds at least one chunk, then fills up to the segment size
+                do {
+                    byte[] bytes = chunks.get(index++).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                } while (index < chunks.size() && out.size() < segmentBytes);
+                out.flush();
+                channel.force(true);
+                total += out.size();
+            }
+        }
+        return total;
+    }
+
+    private List<String> readSegments(Path dir, int chunkCount) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(Comparator.naturalOrder());
+
+        List<String> chunks = new ArrayList<>(chunkCount);
+        for (Path segment : segments) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+                while (in.available() > 0 && chunks.size() < chunkCount) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    chunks.add(new String(bytes, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        if (chunks.size() != chunkCount) {
+            throw new IOException("Expected " + chunkCount + " chunks but found " + chunks.size());
+        }
+        return chunks;
+    }
+
+    private int readWatermark(Path dir) throws IOException {
+        Path watermark = dir.resolve(WATERMARK);
+        return Files.exists(watermark) ? Integer.parseInt(Files.readString(watermark).trim()) : 0;
+    }
+
+    private void writeWatermark(Path dir, int committedChunks) throws IOException {
+        writeDurably(dir, WATERMARK, Integer.toString(committedChunks).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write to a temp file, force it to disk and atomically rename it into place
+     */
+    private void writeDurably(Path dir, String name, byte[] content) throws IOException {
+        Path temp = dir.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(content));
+            channel.force(true);
+        }
+        Files.move(temp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Measure what earlier runs left behind, dropping incomplete or expired spools
+     * @return Number of complete spools awaiting resumption
+     */
+    private int recover(Duration maxAge) throws IOException {
+        int pending = 0;
+        Instant cutoff = Instant.now().minus(maxAge);
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(spoolDirectory, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                Path manifest = dir.resolve(MANIFEST);
+                boolean complete = Files.exists(manifest);
+                if (complete) {
+                    usedBytes.addAndGet(sizeOf(dir));
+                }
+                if (!complete || Files.getLastModifiedTime(manifest).toInstant().isBefore(cutoff)) {
+                    delete(dir);
+                    continue;
+                }
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    private Path directoryFor(String sourceKey) {
+        return spoolDirectory.resolve(ContentHash.sha256Hex(sourceKey).substring(0, 32));
+    }
+
+    private long sizeOf(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .mapToLong(path -> path.toFile().length())
+                    .sum();
+        }
+    }
+
+    private void delete(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try {
+            // Only complete spools are counted towards the size cap
+            long size = Files.exists(dir.resolve(MANIFEST)) ? sizeOf(dir) : 0;
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+            usedBytes.addAndGet(-size);
+        } catch (IOException e) {
+            logger.warn("Failed to delete spool directory {}: {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * Spooled chunks of one source file and its commit watermark
+     */
+    public final class SpooledFile {
+        private final String sourceKey;
+        private final Path dir;
+        private final List<String> chunks;
+        private volatile int committedChunks;
+
+        private SpooledFile(String sourceKey, Path dir, List<String> chunks, int committedChunks) {
+            this.sourceKey = sourceKey;
+            this.dir = dir;
+            this.chunks = chunks;
+            this.committedChunks = committedChunks;
+        }
+
+        public List<String> getChunks() { return chunks; }
+        public int getCommittedChunks() { return committedChunks; }
+
+        /**
+         * Record that every chunk before the given index has been stored
+         */
+        public void commit(int committedChunks) {
+            try {
+                writeWatermark(dir, committedChunks);
+                this.committedChunks = committedChunks;
+            } catch (IOException e) {
+                // A stale watermark only means some chunks are re-embedded after a crash
+                logger.warn("Failed to advance spool watermark for {}: {}", sourceKey, e.getMessage());
+            }
+        }
+
+        /**
+         * Remove the spool once the whole file has been stored
+         */
+        public void complete() {
+            delete(dir);
+        }
+    }
+}
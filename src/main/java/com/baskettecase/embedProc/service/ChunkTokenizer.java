@@ -0,0 +1,83 @@
+package com.baskettecase.embedProc.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Offline BPE tokenizer used to size chunks in tokens rather than words.
+ * The encoding is taken from app.chunking.tokenizer.encoding, or derived from the embedding
+ * model name (the OpenAI text-embedding models use cl100k_base). Models without a known BPE
+ * encoding, such as nomic-embed-text, fall back to cl100k_base as a close approximation.
+ */
+@Service
+@ConditionalOnProperty(name = "app.chunking.unit", havingValue = "tokens")
+public class ChunkTokenizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkTokenizer.class);
+
+    private final Encoding encoding;
+    private final int maxTokensPerChunk;
+
+    public ChunkTokenizer(@Value("${app.chunking.max-tokens-per-chunk:512}") int maxTokensPerChunk,
+                          @Value("${app.chunking.tokenizer.encoding:}") String encodingName,
+                          @Value("${spring.ai.openai.embedding.options.model:${spring.ai.ollama.embedding.options.model:}}") String embeddingModel) {
+        this.encoding = resolveEncoding(encodingName, embeddingModel);
+        this.maxTokensPerChunk = maxTokensPerChunk;
+        logger.info("ChunkTokenizer initialized - {} encoding, {} tokens per chunk", encoding.getName(), maxTokensPerChunk);
+    }
+
+    public int getMaxTokensPerChunk() {
+        return maxTokensPerChunk;
+    }
+
+    /**
+     * Exact token count; special-token markers in the text are counted as ordinary text
+     */
+    public int count(String text) {
+        return encoding.countTokensOrdinary(text);
+    }
+
+    /**
+     * Cheap estimate meant to be at or above the exact count for typical text: half a token per
+     * ASCII letter or space (BPE averages about four), one per digit or punctuation mark, and one
+     * per UTF-8 byte otherwise.
+     */
+    public static int pessimisticEstimate(CharSequence text) {
+        int halfTokens = 0;
+        int tokens = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char ch = text.charAt(i);
+            if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == ' ') {
+                halfTokens++;
+            } else if (ch < 0x80) {
+                tokens++;
+            } else {
+                tokens += ch < 0x800 ? 2 : 3;
+            }
+        }
+        return tokens + (halfTokens + 1) / 2;
+    }
+
+    private static Encoding resolveEncoding(String encodingName, String embeddingModel) {
+        EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+        if (encodingName != null && !encodingName.isBlank()) {
+            return registry.getEncoding(encodingName)
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown tokenizer encoding: " + encodingName));
+        }
+        if (embeddingModel != null && !embeddingModel.isBlank()) {
+            var forModel = registry.getEncodingForModel(embeddingModel);
+            if (forModel.isPresent()) {
+                return forModel.get();
+            }
+            logger.info("No BPE encoding known for embedding model {}, approximating with cl100k_base", embeddingModel);
+        }
+        return registry.getEncoding(EncodingType.CL100K_BASE);
+    }
+}
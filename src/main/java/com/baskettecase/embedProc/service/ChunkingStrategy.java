@@ -0,0 +1,38 @@
+package com.baskettecase.embedProc.service;
+
+/**
+ * How documents are cut into the units that {@link TextChunkingService} packs into chunks.
+ * Implementations are beans selected per DocumentType by name with app.chunking.strategy.&lt;type&gt;;
+ * the size limit, overlap, boundary modes and chunk metrics are applied by the packer for all of them.
+ */
+public interface ChunkingStrategy {
+
+    /**
+     * Name used in configuration and as the strategy tag of the chunking metrics
+     */
+    String getName();
+
+    /**
+     * Cut a trimmed paragraph into units that chunk boundaries may fall between.
+     * Units of one paragraph keep the text between them when they share a chunk.
+     * @return Start and end offsets of the units in pairs, in order and covering every word,
+     *         or null to keep the paragraph whole
+     */
+    default int[] units(CharSequence paragraph) {
+        return null;
+    }
+
+    /**
+     * Whether a chunk must end before the paragraph, such as one starting with a heading
+     */
+    default boolean startsSection(CharSequence paragraph) {
+        return false;
+    }
+
+    /**
+     * Token budget of the strategy's own, or null to size chunks as app.chunking.unit says
+     */
+    default ChunkTokenizer getTokenizer() {
+        return null;
+    }
+}
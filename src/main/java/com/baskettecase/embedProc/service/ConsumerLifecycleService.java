@@ -24,6 +24,9 @@ public class ConsumerLifecycleService {
     
     @Autowired(required = false)
     private StreamControlEndpoint streamControlEndpoint;
+
+    @Autowired(required = false)
+    private WarmupService warmupService;
     
     /**
      * Initialize the binding state to STOPPED when the application context is refreshed.
@@ -47,10 +50,21 @@ public class ConsumerLifecycleService {
     
     /**
      * Event listener for processing started events.
+     * When warm-up is enabled, the binding is only started once the warm-up has finished.
      * @param event The processing started event
      */
     @EventListener
     public void handleProcessingStarted(ProcessingStateService.ProcessingStartedEvent event) {
+        if (warmupService != null) {
+            try {
+                if (!warmupService.awaitCompletion()) {
+                    logger.warn("Warm-up still running after timeout, starting binding {} anyway", BINDING_NAME);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for warm-up to finish");
+            }
+        }
         logger.info("Received processing started event, starting binding: {}", BINDING_NAME);
         changeBindingState("STARTED");
     }
@@ -0,0 +1,34 @@
+package com.baskettecase.embedProc.service;
+
+import java.util.Random;
+
+/**
+ * Boundary detection for content-defined chunking, see
+ * {@link TextChunkingService#setContentDefinedBoundaries(boolean, int, int)}
+ */
+final class ContentDefinedBoundaries {
+
+    // Fixed random values per character for the content-defined boundary hash; the seed must never change
+    private static final long[] GEAR = new Random(0x6765617248617368L).longs(256).toArray();
+
+    private ContentDefinedBoundaries() {
+    }
+
+    /**
+     * Whether a content-defined chunk boundary follows the paragraph. A gear hash rolls over the
+     * paragraph, so only its last 64 characters decide, and a boundary is chosen with a probability
+     * of about paragraphWords / targetWords, keeping the mean chunk size independent of paragraph size.
+     */
+    static boolean isContentBoundary(CharSequence paragraph, int paragraphWords, int targetWords) {
+        long hash = 0;
+        for (int i = 0, length = paragraph.length(); i < length; i++) {
+            char ch = paragraph.charAt(i);
+            hash = (hash << 1) + GEAR[(ch ^ (ch >>> 8)) & 0xFF];
+        }
+        // Finalize so every bit of the window reaches the low bits used by the remainder
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return Long.remainderUnsigned(hash, targetWords) < paragraphWords;
+    }
+}
@@ -0,0 +1,74 @@
+package com.baskettecase.embedProc.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Content hashing helpers used to recognise identical chunk text.
+ * SHA-256 is used because it is intrinsified by the JVM on current hardware and
+ * collisions are not a practical concern for cache keys or document identifiers.
+ */
+public final class ContentHash {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private ContentHash() {
+    }
+
+    /**
+     * Hash the given parts (joined with a separator that cannot occur in UTF-8 text)
+     * @param parts The values to hash, nulls are treated as empty
+     * @return Lower-case hex SHA-256 digest
+     */
+    public static String sha256Hex(String... parts) {
+        return HEX.formatHex(sha256(parts));
+    }
+
+    /**
+     * Hash the given parts into raw digest bytes
+     * @param parts The values to hash, nulls are treated as empty
+     * @return 32-byte SHA-256 digest
+     */
+    public static byte[] sha256(String... parts) {
+        MessageDigest digest = newDigest();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                digest.update((byte) 0xFF);
+            }
+            if (parts[i] != null) {
+                digest.update(parts[i].getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Derive a stable name-based UUID from the given parts, so the same input always maps
+     * to the same document id (SHA-256 truncated to 128 bits, version 5 layout)
+     * @param parts The values to hash, nulls are treated as empty
+     * @return Deterministic UUID
+     */
+    public static UUID uuid(String... parts) {
+        byte[] hash = sha256(parts);
+        hash[6] = (byte) ((hash[6] & 0x0F) | 0x50);
+        hash[8] = (byte) ((hash[8] & 0x3F) | 0x80);
+        long most = 0;
+        long least = 0;
+        for (int i = 0; i < 8; i++) {
+            most = (most << 8) | (hash[i] & 0xFF);
+            least = (least << 8) | (hash[i + 8] & 0xFF);
+        }
+        return new UUID(most, least);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
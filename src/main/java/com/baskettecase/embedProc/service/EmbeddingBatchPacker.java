@@ -0,0 +1,76 @@
+package com.baskettecase.embedProc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Groups chunks into embedding requests by estimated token count instead of a fixed
+ * number of chunks. Each batch is filled up to the per-request token budget and the
+ * maximum number of inputs, so requests are as large as possible without exceeding
+ * provider limits. Input order is preserved.
+ */
+@Component
+public class EmbeddingBatchPacker {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingBatchPacker.class);
+
+    private final int maxTokensPerBatch;
+    private final int maxInputsPerBatch;
+
+    public EmbeddingBatchPacker(@Value("${app.embedding.batch.max-tokens:7000}") int maxTokensPerBatch,
+                                @Value("${app.embedding.batch.max-inputs:64}") int maxInputsPerBatch) {
+        if (maxTokensPerBatch <= 0 || maxInputsPerBatch <= 0) {
+            throw new IllegalArgumentException("Batch token budget and input limit must be positive");
+        }
+        this.maxTokensPerBatch = maxTokensPerBatch;
+        this.maxInputsPerBatch = maxInputsPerBatch;
+    }
+
+    /**
+     * Pack items into batches
+     * @param items The items to pack, in order
+     * @param tokenCounter Estimated token count for an item
+     * @return Batches in input order; an item larger than the budget is placed in a batch of its own
+     */
+    public <T> List<List<T>> pack(List<T> items, ToIntFunction<T> tokenCounter) {
+        List<List<T>> batches = new ArrayList<>();
+        List<T> current = new ArrayList<>();
+        int currentTokens = 0;
+
+        for (T item : items) {
+            int tokens = tokenCounter.applyAsInt(item);
+            if (!current.isEmpty()
+                    && (currentTokens + tokens > maxTokensPerBatch || current.size() >= maxInputsPerBatch)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            if (tokens > maxTokensPerBatch) {
+                logger.warn("Chunk of ~{} tokens exceeds the per-request budget of {} tokens", tokens, maxTokensPerBatch);
+            }
+            current.add(item);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+
+        logger.debug("Packed {} chunks into {} batches (budget {} tokens / {} inputs)",
+                    items.size(), batches.size(), maxTokensPerBatch, maxInputsPerBatch);
+        return batches;
+    }
+
+    public int getMaxTokensPerBatch() {
+        return maxTokensPerBatch;
+    }
+
+    public int getMaxInputsPerBatch() {
+        return maxInputsPerBatch;
+    }
+}
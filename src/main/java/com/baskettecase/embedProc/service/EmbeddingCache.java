@@ -0,0 +1,216 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-tier cache of embedding vectors keyed by a content hash of the chunk text
+ * plus the embedding model name and dimensions.
+ * The memory tier is a bounded LRU map; the optional persistent tier is a Postgres
+ * table so cached vectors survive restarts and are shared between instances.
+ */
+@Service
+@Profile({"standalone", "cloud"})
+@ConditionalOnProperty(name = "app.embedding.cache.enabled", havingValue = "true")
+public class EmbeddingCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingCache.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean persistentEnabled;
+    private final String tableName;
+    private final String keyPrefix;
+    private final Map<String, float[]> memoryTier;
+
+    private final Counter memoryHits;
+    private final Counter persistentHits;
+    private final Counter misses;
+
+    public EmbeddingCache(MeterRegistry meterRegistry,
+                          @Autowired(required = false) JdbcTemplate jdbcTemplate,
+                          @Value("${app.embedding.cache.max-entries:10000}") int maxEntries,
+                          @Value("${app.embedding.cache.persistent.enabled:false}") boolean persistentEnabled,
+                          @Value("${app.embedding.cache.persistent.table-name:embedding_cache}") String tableName,
+                          @Value("${spring.ai.openai.embedding.options.model:${spring.ai.ollama.embedding.options.model:default}}") String modelName,
+                          @Value("${spring.ai.vectorstore.pgvector.dimensions:0}") int dimensions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.persistentEnabled = persistentEnabled && jdbcTemplate != null;
+        this.tableName = tableName;
+        this.keyPrefix = modelName + ":" + dimensions;
+        this.memoryTier = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.memoryHits = Counter.builder("embeddings.cache.hits")
+                .description("Embedding cache hits")
+                .tag("tier", "memory")
+                .register(meterRegistry);
+        this.persistentHits = Counter.builder("embeddings.cache.hits")
+                .description("Embedding cache hits")
+                .tag("tier", "persistent")
+                .register(meterRegistry);
+        this.misses = Counter.builder("embeddings.cache.misses")
+                .description("Embedding cache misses")
+                .register(meterRegistry);
+        Gauge.builder("embeddings.cache.size", this, EmbeddingCache::size)
+                .description("Entries held in the in-memory embedding cache")
+                .register(meterRegistry);
+
+        if (persistentEnabled && jdbcTemplate == null) {
+            logger.warn("Persistent embedding cache requested but no JdbcTemplate is available - using memory tier only");
+        }
+        if (this.persistentEnabled) {
+            initializeTable();
+        }
+        logger.info("EmbeddingCache initialized - maxEntries: {}, persistent: {}, key: {}",
+                   maxEntries, this.persistentEnabled, keyPrefix);
+    }
+
+    /**
+     * Compute the cache key for a chunk of text
+     */
+    public String keyFor(String text) {
+        return ContentHash.sha256Hex(keyPrefix, text);
+    }
+
+    /**
+     * Compute the cache key for a chunk of text embedded with per-request options; a model or
+     * dimensions set in the options override the configured ones
+     */
+    public String keyFor(String text, EmbeddingOptions options) {
+        if (options == null || (options.getModel() == null && options.getDimensions() == null)) {
+            return keyFor(text);
+        }
+        return ContentHash.sha256Hex(keyPrefix, options.getModel(),
+                options.getDimensions() != null ? options.getDimensions().toString() : null, text);
+    }
+
+    /**
+     * Look up cached embeddings for the given keys.
+     * Keys found in the persistent tier are promoted into the memory tier.
+     * @param keys Cache keys as produced by {@link #keyFor(String)}
+     * @return Map of key to embedding for every key that was found
+     */
+    public Map<String, float[]> getAll(Collection<String> keys) {
+        Map<String, float[]> found = new HashMap<>();
+        List<String> remaining = new ArrayList<>();
+        synchronized (memoryTier) {
+            for (String key : keys) {
+                float[] embedding = memoryTier.get(key);
+                if (embedding != null) {
+                    found.put(key, embedding);
+                } else {
+                    remaining.add(key);
+                }
+            }
+        }
+        memoryHits.increment(found.size());
+
+        if (persistentEnabled && !remaining.isEmpty()) {
+            Map<String, float[]> persisted = loadPersistent(remaining);
+            if (!persisted.isEmpty()) {
+                synchronized (memoryTier) {
+                    memoryTier.putAll(persisted);
+                }
+                found.putAll(persisted);
+                persistentHits.increment(persisted.size());
+            }
+        }
+
+        misses.increment(keys.size() - found.size());
+        return found;
+    }
+
+    /**
+     * Store freshly computed embeddings in both tiers
+     */
+    public void putAll(Map<String, float[]> embeddings) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        synchronized (memoryTier) {
+            memoryTier.putAll(embeddings);
+        }
+        if (persistentEnabled) {
+            storePersistent(embeddings);
+        }
+    }
+
+    public int size() {
+        synchronized (memoryTier) {
+            return memoryTier.size();
+        }
+    }
+
+    private void initializeTable() {
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                    "cache_key varchar(64) PRIMARY KEY, " +
+                    "embedding bytea NOT NULL, " +
+                    "created_at timestamp NOT NULL DEFAULT now())");
+        } catch (Exception e) {
+            logger.error("Failed to initialize embedding cache table {}: {}", tableName, e.getMessage());
+        }
+    }
+
+    private Map<String, float[]> loadPersistent(List<String> keys) {
+        Map<String, float[]> result = new HashMap<>();
+        try {
+            String placeholders = String.join(",", Collections.nCopies(keys.size(), "?"));
+            jdbcTemplate.query("SELECT cache_key, embedding FROM " + tableName + " WHERE cache_key IN (" + placeholders + ")",
+                    rs -> {
+                        result.put(rs.getString(1), fromBytes(rs.getBytes(2)));
+                    },
+                    keys.toArray());
+        } catch (Exception e) {
+            // A cache outage must never fail embedding - fall through to the model
+            logger.warn("Failed to read persistent embedding cache: {}", e.getMessage());
+        }
+        return result;
+    }
+
+    private void storePersistent(Map<String, float[]> embeddings) {
+        try {
+            List<Object[]> rows = new ArrayList<>(embeddings.size());
+            embeddings.forEach((key, embedding) -> rows.add(new Object[]{key, toBytes(embedding)}));
+            jdbcTemplate.batchUpdate("INSERT INTO " + tableName + " (cache_key, embedding) VALUES (?, ?) " +
+                    "ON CONFLICT (cache_key) DO NOTHING", rows);
+        } catch (Exception e) {
+            logger.warn("Failed to write persistent embedding cache: {}", e.getMessage());
+        }
+    }
+
+    static byte[] toBytes(float[] embedding) {
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+
+    static float[] fromBytes(byte[] bytes) {
+        float[] embedding = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(embedding);
+        return embedding;
+    }
+}
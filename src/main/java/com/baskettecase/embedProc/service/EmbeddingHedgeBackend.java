@@ -0,0 +1,89 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Secondary embedding endpoint used for hedged requests.
+ * Builds an Ollama or OpenAI-compatible model from the app.embedding.hedge.* properties and
+ * wraps the primary model in a {@link HedgedEmbeddingModel}. If the two models disagree on
+ * embedding dimensions, hedging is refused on first use and the primary is used alone.
+ */
+@Service
+@Profile({"standalone", "cloud"})
+@ConditionalOnProperty(name = "app.embedding.hedge.enabled", havingValue = "true")
+public class EmbeddingHedgeBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingHedgeBackend.class);
+
+    private final EmbeddingModel secondary;
+    private final Executor executor;
+    private final MeterRegistry meterRegistry;
+    private final double percentile;
+    private final long initialDelayMillis;
+    private final long minDelayMillis;
+    private final int windowSize;
+
+    public EmbeddingHedgeBackend(@Qualifier("ioExecutor") Executor executor,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.embedding.hedge.provider:ollama}") String provider,
+                                 @Value("${app.embedding.hedge.base-url}") String baseUrl,
+                                 @Value("${app.embedding.hedge.api-key:}") String apiKey,
+                                 @Value("${app.embedding.hedge.model}") String model,
+                                 @Value("${app.embedding.hedge.percentile:0.95}") double percentile,
+                                 @Value("${app.embedding.hedge.initial-delay-ms:1000}") long initialDelayMillis,
+                                 @Value("${app.embedding.hedge.min-delay-ms:50}") long minDelayMillis,
+                                 @Value("${app.embedding.hedge.window-size:200}") int windowSize) {
+        this.secondary = createModel(provider, baseUrl, apiKey, model);
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.percentile = percentile;
+        this.initialDelayMillis = initialDelayMillis;
+        this.minDelayMillis = minDelayMillis;
+        this.windowSize = windowSize;
+        logger.info("EmbeddingHedgeBackend initialized - {} model {} at {}, hedging after p{} latency",
+                   provider, model, baseUrl, Math.round(percentile * 100));
+    }
+
+    /**
+     * Wrap the primary model so slow requests are hedged to the secondary endpoint
+     */
+    public EmbeddingModel wrap(EmbeddingModel primary) {
+        return new HedgedEmbeddingModel(primary, secondary, executor, meterRegistry,
+                percentile, initialDelayMillis, minDelayMillis, windowSize);
+    }
+
+    private static EmbeddingModel createModel(String provider, String baseUrl, String apiKey, String model) {
+        if ("openai".equalsIgnoreCase(provider)) {
+            OpenAiApi api = OpenAiApi.builder()
+                    .baseUrl(baseUrl)
+                    .apiKey(apiKey.isEmpty() ? "unused" : apiKey)
+                    .build();
+            return new OpenAiEmbeddingModel(api, MetadataMode.EMBED,
+                    OpenAiEmbeddingOptions.builder().model(model).build());
+        }
+        if ("ollama".equalsIgnoreCase(provider)) {
+            return OllamaEmbeddingModel.builder()
+                    .ollamaApi(OllamaApi.builder().baseUrl(baseUrl).build())
+                    .defaultOptions(OllamaOptions.builder().model(model).build())
+                    .build();
+        }
+        throw new IllegalArgumentException("Unsupported hedge provider: " + provider + " (expected ollama or openai)");
+    }
+}
@@ -0,0 +1,135 @@
+package com.baskettecase.embedProc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces documents submitted by concurrently processed files into shared embedding batches.
+ * A batch is flushed when it reaches the input or token budget, or when its oldest document
+ * has waited for the linger time. Each submitted document has its own future, so each file
+ * waits only for the batches that hold its chunks.
+ */
+public class EmbeddingMicroBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingMicroBatcher.class);
+
+    private final int maxInputs;
+    private final int maxTokens;
+    private final long lingerNanos;
+    private final Consumer<List<Pending>> flusher;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread flushThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param maxInputs Maximum documents per batch
+     * @param maxTokens Maximum estimated tokens per batch
+     * @param lingerMillis Maximum time the first document of a batch waits for company
+     * @param flusher Writes a batch and completes its futures; may block to apply backpressure
+     */
+    public EmbeddingMicroBatcher(int maxInputs, int maxTokens, long lingerMillis, Consumer<List<Pending>> flusher) {
+        this.maxInputs = maxInputs;
+        this.maxTokens = maxTokens;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.flusher = flusher;
+        this.flushThread = new Thread(this::run, "embedding-micro-batcher");
+        this.flushThread.setDaemon(true);
+        this.flushThread.start();
+    }
+
+    /**
+     * Queue a document for embedding
+     * @return Future completed once the batch containing the document has been stored
+     */
+    public CompletableFuture<Void> submit(Document document) {
+        Pending pending = new Pending(document, TokenEstimator.estimate(document.getText()), System.nanoTime());
+        queue.add(pending);
+        return pending.future;
+    }
+
+    public void shutdown() {
+        running = false;
+        flushThread.interrupt();
+    }
+
+    private void run() {
+        Pending carry = null;
+        while (running) {
+            try {
+                Pending first = carry != null ? carry : queue.take();
+                carry = null;
+                List<Pending> batch = new ArrayList<>();
+                batch.add(first);
+                int tokens = first.tokens;
+                long deadline = first.enqueuedNanos + lingerNanos;
+
+                while (batch.size() < maxInputs) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (tokens + next.tokens > maxTokens) {
+                        // Start the next batch with it rather than overshoot the token budget
+                        carry = next;
+                        break;
+                    }
+                    batch.add(next);
+                    tokens += next.tokens;
+                }
+                logger.debug("Flushing micro-batch of {} documents (~{} tokens)", batch.size(), tokens);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        failRemaining(carry);
+    }
+
+    private void flush(List<Pending> batch) {
+        try {
+            flusher.accept(batch);
+        } catch (RuntimeException e) {
+            batch.forEach(pending -> pending.future.completeExceptionally(e));
+        }
+    }
+
+    private void failRemaining(Pending carry) {
+        List<Pending> remaining = new ArrayList<>();
+        if (carry != null) {
+            remaining.add(carry);
+        }
+        queue.drainTo(remaining);
+        IllegalStateException error = new IllegalStateException("Embedding micro-batcher shut down");
+        remaining.forEach(pending -> pending.future.completeExceptionally(error));
+    }
+
+    /**
+     * A queued document and the future its submitter waits on
+     */
+    public static final class Pending {
+        final Document document;
+        final int tokens;
+        final long enqueuedNanos;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(Document document, int tokens, long enqueuedNanos) {
+            this.document = document;
+            this.tokens = tokens;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        public Document getDocument() { return document; }
+        public CompletableFuture<Void> getFuture() { return future; }
+    }
+}
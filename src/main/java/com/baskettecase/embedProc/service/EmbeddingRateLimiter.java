@@ -0,0 +1,162 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side limiter for the embedding provider's requests-per-minute and
+ * tokens-per-minute quotas. Each call to {@link #acquire(int)} takes one request and the
+ * estimated tokens from two token buckets, blocking until both are available instead of
+ * letting the provider reject the call.
+ * When shared mode is enabled the buckets live in a Postgres row so that all instances
+ * draining the queue together stay under the organisation's quota.
+ */
+@Service
+@Profile({"standalone", "cloud"})
+@ConditionalOnProperty(name = "app.embedding.rate-limit.enabled", havingValue = "true")
+public class EmbeddingRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingRateLimiter.class);
+    private static final long MAX_SLEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final String ELAPSED = "EXTRACT(EPOCH FROM (clock_timestamp() - updated_at))";
+
+    private final double requestsPerMinute;
+    private final double tokensPerMinute;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean shared;
+    private final String tableName;
+    private final String bucketName;
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+    private final Timer waitTimer;
+
+    public EmbeddingRateLimiter(MeterRegistry meterRegistry,
+                                @Autowired(required = false) JdbcTemplate jdbcTemplate,
+                                @Value("${app.embedding.rate-limit.requests-per-minute:3000}") double requestsPerMinute,
+                                @Value("${app.embedding.rate-limit.tokens-per-minute:1000000}") double tokensPerMinute,
+                                @Value("${app.embedding.rate-limit.shared:false}") boolean shared,
+                                @Value("${app.embedding.rate-limit.table-name:embedding_rate_limit}") String tableName,
+                                @Value("${app.embedding.rate-limit.bucket-name:${spring.application.name:embedProc}}") String bucketName) {
+        this.requestsPerMinute = requestsPerMinute;
+        this.tokensPerMinute = tokensPerMinute;
+        this.jdbcTemplate = jdbcTemplate;
+        this.shared = shared && jdbcTemplate != null;
+        this.tableName = tableName;
+        this.bucketName = bucketName;
+
+        long now = System.nanoTime();
+        this.requestBucket = new TokenBucket(requestsPerMinute, requestsPerMinute / 60d, now);
+        this.tokenBucket = new TokenBucket(tokensPerMinute, tokensPerMinute / 60d, now);
+        this.waitTimer = Timer.builder("embeddings.ratelimit.wait")
+                .description("Time embedding calls waited for provider quota")
+                .tag("mode", this.shared ? "shared" : "local")
+                .register(meterRegistry);
+
+        if (shared && jdbcTemplate == null) {
+            logger.warn("Shared rate limiting requested but no JdbcTemplate is available - using local buckets");
+        }
+        if (this.shared) {
+            initializeSharedBucket();
+        }
+        logger.info("EmbeddingRateLimiter initialized - {} requests/min, {} tokens/min, shared: {}",
+                   requestsPerMinute, tokensPerMinute, this.shared);
+    }
+
+    /**
+     * Block until one request and the given number of tokens are available
+     * @param estimatedTokens Estimated tokens in the embedding request
+     */
+    public void acquire(int estimatedTokens) throws InterruptedException {
+        long start = System.nanoTime();
+        long waitNanos;
+        while ((waitNanos = tryAcquire(estimatedTokens)) > 0) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(waitNanos, MAX_SLEEP_NANOS));
+        }
+        long waited = System.nanoTime() - start;
+        waitTimer.record(Duration.ofNanos(waited));
+        if (waited > MAX_SLEEP_NANOS) {
+            logger.debug("Waited {} ms for embedding quota ({} tokens)", TimeUnit.NANOSECONDS.toMillis(waited), estimatedTokens);
+        }
+    }
+
+    private long tryAcquire(int estimatedTokens) {
+        return shared ? tryAcquireShared(estimatedTokens) : tryAcquireLocal(estimatedTokens);
+    }
+
+    private synchronized long tryAcquireLocal(int estimatedTokens) {
+        long now = System.nanoTime();
+        long wait = Math.max(requestBucket.nanosUntilAvailable(1, now), tokenBucket.nanosUntilAvailable(estimatedTokens, now));
+        if (wait == 0) {
+            requestBucket.consume(1);
+            tokenBucket.consume(estimatedTokens);
+        }
+        return wait;
+    }
+
+    private long tryAcquireShared(int estimatedTokens) {
+        double tokens = Math.min(estimatedTokens, tokensPerMinute);
+        double requestRate = requestsPerMinute / 60d;
+        double tokenRate = tokensPerMinute / 60d;
+        try {
+            // Refill and consume in one statement so the row lock makes it atomic across instances
+            int updated = jdbcTemplate.update(
+                    "UPDATE " + tableName + " SET " +
+                    "requests = LEAST(?, requests + " + ELAPSED + " * ?) - 1, " +
+                    "tokens = LEAST(?, tokens + " + ELAPSED + " * ?) - ?, " +
+                    "updated_at = clock_timestamp() " +
+                    "WHERE name = ? " +
+                    "AND LEAST(?, requests + " + ELAPSED + " * ?) >= 1 " +
+                    "AND LEAST(?, tokens + " + ELAPSED + " * ?) >= ?",
+                    requestsPerMinute, requestRate, tokensPerMinute, tokenRate, tokens,
+                    bucketName,
+                    requestsPerMinute, requestRate, tokensPerMinute, tokenRate, tokens);
+            if (updated > 0) {
+                return 0;
+            }
+
+            List<double[]> levels = jdbcTemplate.query(
+                    "SELECT LEAST(?, requests + " + ELAPSED + " * ?), LEAST(?, tokens + " + ELAPSED + " * ?) " +
+                    "FROM " + tableName + " WHERE name = ?",
+                    (rs, rowNum) -> new double[]{rs.getDouble(1), rs.getDouble(2)},
+                    requestsPerMinute, requestRate, tokensPerMinute, tokenRate, bucketName);
+            if (levels.isEmpty()) {
+                initializeSharedBucket();
+                return MAX_SLEEP_NANOS / 10;
+            }
+            double requestDeficit = Math.max(0, 1 - levels.get(0)[0]) / requestRate;
+            double tokenDeficit = Math.max(0, tokens - levels.get(0)[1]) / tokenRate;
+            return Math.max(1, (long) (Math.max(requestDeficit, tokenDeficit) * 1_000_000_000d));
+        } catch (Exception e) {
+            // Fall back to this instance's own buckets rather than stalling on a database problem
+            logger.warn("Shared rate limit unavailable, using local buckets: {}", e.getMessage());
+            return tryAcquireLocal(estimatedTokens);
+        }
+    }
+
+    private void initializeSharedBucket() {
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                    "name varchar(255) PRIMARY KEY, " +
+                    "requests double precision NOT NULL, " +
+                    "tokens double precision NOT NULL, " +
+                    "updated_at timestamptz NOT NULL DEFAULT clock_timestamp())");
+            jdbcTemplate.update("INSERT INTO " + tableName + " (name, requests, tokens) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (name) DO NOTHING", bucketName, requestsPerMinute, tokensPerMinute);
+        } catch (Exception e) {
+            logger.error("Failed to initialize shared rate limit bucket {}: {}", bucketName, e.getMessage());
+        }
+    }
+}
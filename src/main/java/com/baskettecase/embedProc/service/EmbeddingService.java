@@ -3,19 +3,24 @@ package com.baskettecase.embedProc.service;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import io.micrometer.core.instrument.Counter;
 import org.springframework.context.annotation.Profile;
 import com.baskettecase.embedProc.service.DocumentType;
+import jakarta.annotation.PreDestroy;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -29,17 +34,96 @@ public class EmbeddingService {
     private final Counter embeddingErrorCounter;
     private final MonitorService monitorService;
     
-    // Thread pool for parallel processing
-    private final Executor embeddingExecutor = Executors.newFixedThreadPool(5);
+    // Executor for parallel processing; in-flight batches are bounded by the concurrency limiter
+    private final Executor embeddingExecutor;
+    // Bounds concurrent writes so that waiting callers queue here rather than on the connection pool
+    private final Semaphore writePermits;
 
+    private final EmbeddingBatchPacker batchPacker;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final StageMetrics stageMetrics;
+    private final ChunkQuarantine chunkQuarantine;
+    private final ExistingDocumentFilter existingDocumentFilter;
+    private final StaleChunkRemover staleChunkRemover;
+    private final PgVectorCopyWriter copyWriter;
+    private EmbeddingMicroBatcher microBatcher;
+
+    /**
+     * @param ioExecutor Blocking I/O executor (virtual threads when spring.threads.virtual.enabled=true)
+     * @param maxConcurrentWrites Cap on concurrent vector store writes
+     * @param batchPacker Sizes parallel embedding requests by token budget
+     * @param concurrencyLimiter Adaptive limiter bounding the number of embedding batches in flight
+     * @param stageMetrics Per-stage timers recording the store stage
+     * @param chunkQuarantine Optional; when present, failing batches are bisected so that
+     *                        only the offending chunks are quarantined instead of the whole batch
+     * @param existingDocumentFilter Optional; when present, documents whose deterministic id is
+     *                               already stored are skipped before the embedding call
+     * @param staleChunkRemover Optional; when present, {@link #removeStaleChunks} deletes the rows
+     *                          an edited source file no longer produces
+     * @param copyWriter Optional bulk writer used when app.embedding.write-mode=copy.
+     *                   When absent, documents are written through the VectorStore.
+     */
     public EmbeddingService(VectorStore vectorStore, 
                            Counter embeddingProcessedCounter,
                            Counter embeddingErrorCounter,
-                           @Autowired(required = false) MonitorService monitorService) {
+                           @Autowired(required = false) MonitorService monitorService,
+                           @Qualifier("ioExecutor") Executor ioExecutor,
+                           @Value("${app.io.max-concurrent-writes:10}") int maxConcurrentWrites,
+                           EmbeddingBatchPacker batchPacker,
+                           AdaptiveConcurrencyLimiter concurrencyLimiter,
+                           StageMetrics stageMetrics,
+                           @Autowired(required = false) ChunkQuarantine chunkQuarantine,
+                           @Autowired(required = false) ExistingDocumentFilter existingDocumentFilter,
+                           @Autowired(required = false) StaleChunkRemover staleChunkRemover,
+                           @Autowired(required = false) PgVectorCopyWriter copyWriter) {
         this.vectorStore = vectorStore;
         this.embeddingProcessedCounter = embeddingProcessedCounter;
         this.embeddingErrorCounter = embeddingErrorCounter;
         this.monitorService = monitorService;
+        this.embeddingExecutor = ioExecutor;
+        this.writePermits = new Semaphore(maxConcurrentWrites);
+        this.batchPacker = batchPacker;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.stageMetrics = stageMetrics;
+        this.chunkQuarantine = chunkQuarantine;
+        this.existingDocumentFilter = existingDocumentFilter;
+        this.staleChunkRemover = staleChunkRemover;
+        this.copyWriter = copyWriter;
+        if (chunkQuarantine != null) {
+            logger.info("EmbeddingService failure isolation enabled");
+        }
+        if (existingDocumentFilter != null) {
+            logger.info("EmbeddingService skipping unchanged chunks that are already stored");
+        }
+        if (copyWriter != null) {
+            logger.info("EmbeddingService using binary COPY write mode");
+        }
+    }
+
+    /**
+     * Optional cross-file micro-batching. When enabled, chunks from all files being processed
+     * are coalesced into shared batches under the same token and input budget as the batch packer.
+     */
+    @Autowired
+    public void setMicroBatching(@Value("${app.embedding.micro-batch.enabled:false}") boolean enabled,
+                                 @Value("${app.embedding.micro-batch.linger-ms:50}") long lingerMillis,
+                                 @Value("${app.embedding.batch.max-tokens:7000}") int maxTokens,
+                                 @Value("${app.embedding.batch.max-inputs:64}") int maxInputs) {
+        shutdown();
+        if (enabled) {
+            this.microBatcher = new EmbeddingMicroBatcher(maxInputs, maxTokens, lingerMillis, this::writeMicroBatch);
+            logger.info("EmbeddingService cross-file micro-batching enabled - linger: {} ms, max inputs: {}, max tokens: {}",
+                       lingerMillis, maxInputs, maxTokens);
+        } else {
+            this.microBatcher = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (microBatcher != null) {
+            microBatcher.shutdown();
+        }
     }
 
     public void storeEmbedding(String text) {
@@ -50,7 +134,7 @@ public class EmbeddingService {
             }
 
             Document doc = new Document(text);
-            vectorStore.add(List.of(doc));
+            writeDocuments(List.of(doc));
             
             embeddingProcessedCounter.increment();
             
@@ -103,7 +187,7 @@ public class EmbeddingService {
                     .toList();
                 
                 // Store batch in vector store
-                vectorStore.add(documents);
+                writeDocuments(documents);
                 
                 successCount += batch.size();
                 embeddingProcessedCounter.increment(batch.size());
@@ -132,49 +216,84 @@ public class EmbeddingService {
      * Uses CompletableFuture to process batches concurrently
      */
     public void storeEmbeddingsParallel(List<String> texts) {
+        storeEmbeddingsParallel(texts, null, 0);
+    }
+
+    /**
+     * Process embeddings in parallel for chunks of a known source file.
+     * Chunks get deterministic ids so that reprocessing the file upserts rather than duplicates.
+     * @param texts The chunk texts, in file order
+     * @param sourcePath Source file of the chunks, or null for random ids
+     * @param firstChunkIndex Ordinal of the first chunk within the file
+     * @return Number of chunks that could not be stored
+     */
+    public int storeEmbeddingsParallel(List<String> texts, String sourcePath, int firstChunkIndex) {
         if (texts == null || texts.isEmpty()) {
             logger.warn("Attempted to store empty text list, skipping");
-            return;
+            return 0;
+        }
+
+        List<Document> allDocuments = new java.util.ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (sourcePath != null) {
+                Map<String, Object> metadata = new HashMap<>();
+                metadata.put("chunkIndex", firstChunkIndex + i);
+                allDocuments.add(chunkDocument(sourcePath, text, metadata));
+            } else {
+                allDocuments.add(new Document(text));
+            }
+        }
+
+        if (microBatcher != null) {
+            return storeCoalesced(allDocuments, document -> document);
         }
 
-        // Process in parallel batches
-        int batchSize = 20; // Larger batches for parallel processing
+        // Process in parallel batches packed by estimated token count
+        List<List<Document>> batches = batchPacker.pack(allDocuments, document -> TokenEstimator.estimate(document.getText()));
         List<CompletableFuture<Void>> futures = new java.util.ArrayList<>();
+        // Chunks not stored, including those never submitted
+        AtomicInteger failed = new AtomicInteger(texts.size());
         
-        for (int i = 0; i < texts.size(); i += batchSize) {
-            int endIndex = Math.min(i + batchSize, texts.size());
-            List<String> batch = texts.subList(i, endIndex);
-            final int batchIndex = i / batchSize + 1;
-            final int totalBatches = (texts.size() + batchSize - 1) / batchSize;
+        for (int i = 0; i < batches.size(); i++) {
+            List<Document> documents = batches.get(i);
+            final int batchIndex = i + 1;
+            final int totalBatches = batches.size();
             
+            if (!acquireBatchPermit(texts.size())) {
+                break;
+            }
             CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                long startNanos = System.nanoTime();
+                Exception failure = null;
                 try {
-                    // Convert batch to documents
-                    List<Document> documents = batch.stream()
-                        .map(text -> new Document(text))
-                        .toList();
-                    
-                    // Store batch in vector store
-                    vectorStore.add(documents);
+                    // Store batch in vector store, isolating poison chunks if enabled
+                    int quarantined = writeBatch(documents);
+                    int stored = documents.size() - quarantined;
+                    failed.addAndGet(-documents.size());
                     
-                    embeddingProcessedCounter.increment(batch.size());
+                    embeddingProcessedCounter.increment(stored);
+                    recordQuarantined(quarantined);
                     
                     // Update monitor service if available with real-time progress
                     if (monitorService != null) {
-                        monitorService.incrementProcessedChunks(batch.size());
+                        monitorService.incrementProcessedChunks(stored);
                         logger.debug("Processed batch {}/{} ({} chunks) - real-time metrics updated", 
-                                   batchIndex, totalBatches, batch.size());
+                                   batchIndex, totalBatches, stored);
                     }
                     
                 } catch (Exception e) {
-                    embeddingErrorCounter.increment(batch.size());
+                    failure = e;
+                    embeddingErrorCounter.increment(documents.size());
                     
                     // Update monitor service if available
                     if (monitorService != null) {
-                        monitorService.incrementErrors(batch.size());
+                        monitorService.incrementErrors(documents.size());
                         logger.error("Failed to store parallel batch {}/{} of embeddings: {}", 
                                    batchIndex, totalBatches, e.getMessage());
                     }
+                } finally {
+                    concurrencyLimiter.release(System.nanoTime() - startNanos, failure);
                 }
             }, embeddingExecutor);
             
@@ -188,6 +307,7 @@ public class EmbeddingService {
         } catch (Exception e) {
             logger.error("Error during parallel processing: {}", e.getMessage());
         }
+        return failed.get();
     }
 
     /**
@@ -253,8 +373,14 @@ public class EmbeddingService {
             }
 
             // Create document with metadata
-            Document doc = new Document(text, metadata);
-            vectorStore.add(List.of(doc));
+            // A whole-document embedding is the only row of its file, so earlier versions are removed once it is stored
+            Document doc = sourcePath != null
+                ? chunkDocument(sourcePath, text, metadata)
+                : new Document(text, metadata);
+            writeDocuments(List.of(doc));
+            if (sourcePath != null) {
+                removeStaleChunks(sourcePath, List.of(doc.getId()));
+            }
             
             embeddingProcessedCounter.increment();
             
@@ -291,17 +417,23 @@ public class EmbeddingService {
         private final Integer refnum2;
         private final DocumentType documentType;
         private final String sourcePath;
+        private final Integer chunkIndex;
 
         public TextWithMetadata(String text, Integer refnum1, Integer refnum2) {
             this(text, refnum1, refnum2, DocumentType.UNKNOWN, null);
         }
 
         public TextWithMetadata(String text, Integer refnum1, Integer refnum2, DocumentType documentType, String sourcePath) {
+            this(text, refnum1, refnum2, documentType, sourcePath, null);
+        }
+
+        public TextWithMetadata(String text, Integer refnum1, Integer refnum2, DocumentType documentType, String sourcePath, Integer chunkIndex) {
             this.text = text;
             this.refnum1 = refnum1;
             this.refnum2 = refnum2;
             this.documentType = documentType;
             this.sourcePath = sourcePath;
+            this.chunkIndex = chunkIndex;
         }
 
         public String getText() { return text; }
@@ -309,6 +441,7 @@ public class EmbeddingService {
         public Integer getRefnum2() { return refnum2; }
         public DocumentType getDocumentType() { return documentType; }
         public String getSourcePath() { return sourcePath; }
+        public Integer getChunkIndex() { return chunkIndex; }
 
         @Override
         public String toString() {
@@ -321,44 +454,59 @@ public class EmbeddingService {
     /**
      * Store embeddings with metadata in parallel for faster processing
      * @param textWithMetadata List of text and metadata combinations
+     * @return Number of chunks that could not be stored
      */
-    public void storeEmbeddingsWithMetadataParallel(List<TextWithMetadata> textWithMetadata) {
+    public int storeEmbeddingsWithMetadataParallel(List<TextWithMetadata> textWithMetadata) {
         if (textWithMetadata == null || textWithMetadata.isEmpty()) {
             logger.warn("Attempted to store empty text list, skipping");
-            return;
+            return 0;
+        }
+
+        if (microBatcher != null) {
+            return storeCoalesced(textWithMetadata, this::createDocumentWithMetadata);
         }
 
-        // Process in parallel batches
-        int batchSize = 20; // Larger batches for parallel processing
+        // Process in parallel batches packed by estimated token count
+        List<List<TextWithMetadata>> batches = batchPacker.pack(textWithMetadata, item -> TokenEstimator.estimate(item.getText()));
         List<CompletableFuture<Void>> futures = new java.util.ArrayList<>();
+        // Chunks not stored, including those never submitted
+        AtomicInteger failed = new AtomicInteger(textWithMetadata.size());
         
-        for (int i = 0; i < textWithMetadata.size(); i += batchSize) {
-            int endIndex = Math.min(i + batchSize, textWithMetadata.size());
-            List<TextWithMetadata> batch = textWithMetadata.subList(i, endIndex);
-            final int batchIndex = i / batchSize + 1;
-            final int totalBatches = (textWithMetadata.size() + batchSize - 1) / batchSize;
+        for (int i = 0; i < batches.size(); i++) {
+            List<TextWithMetadata> batch = batches.get(i);
+            final int batchIndex = i + 1;
+            final int totalBatches = batches.size();
             
+            if (!acquireBatchPermit(textWithMetadata.size())) {
+                break;
+            }
             CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                long startNanos = System.nanoTime();
+                Exception failure = null;
                 try {
                     // Convert to Documents with metadata
                     List<Document> documents = batch.stream()
                         .map(this::createDocumentWithMetadata)
                         .collect(Collectors.toList());
                     
-                    vectorStore.add(documents);
-                    embeddingProcessedCounter.increment(batch.size());
+                    int quarantined = writeBatch(documents);
+                    int stored = batch.size() - quarantined;
+                    failed.addAndGet(-batch.size());
+                    embeddingProcessedCounter.increment(stored);
+                    recordQuarantined(quarantined);
                     
                     // Update monitor service if available
                     if (monitorService != null) {
-                        monitorService.incrementProcessedChunks(batch.size());
+                        monitorService.incrementProcessedChunks(stored);
                     }
                     
                     logger.debug("Processed batch {}/{} with {} embeddings with metadata", 
-                               batchIndex, totalBatches, batch.size());
+                               batchIndex, totalBatches, stored);
                     logger.info("Successfully stored batch {}/{} with {} documents to vector store", 
-                               batchIndex, totalBatches, batch.size());
+                               batchIndex, totalBatches, stored);
                     
                 } catch (Exception e) {
+                    failure = e;
                     embeddingErrorCounter.increment(batch.size());
                     
                     // Update monitor service if available
@@ -368,6 +516,8 @@ public class EmbeddingService {
                     
                     logger.error("Failed to process batch {}/{} with metadata: {}", 
                                batchIndex, totalBatches, e.getMessage());
+                } finally {
+                    concurrencyLimiter.release(System.nanoTime() - startNanos, failure);
                 }
             }, embeddingExecutor);
             
@@ -382,6 +532,81 @@ public class EmbeddingService {
         } catch (Exception e) {
             logger.error("Error during parallel processing with metadata: {}", e.getMessage());
         }
+        return failed.get();
+    }
+
+    /**
+     * Hand a file's documents to the shared micro-batcher and wait until every one is stored.
+     * Each document is built as it is submitted, so an item that cannot be turned into a
+     * document is counted as failed like any other unstored chunk instead of failing the call.
+     * @return Number of documents that could not be stored
+     */
+    private <T> int storeCoalesced(List<T> items, Function<T, Document> toDocument) {
+        List<CompletableFuture<Void>> futures = items.stream()
+            .map(item -> submitCoalesced(item, toDocument))
+            .toList();
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            logger.info("Coalesced batch processing completed for {} chunks", items.size());
+        } catch (Exception e) {
+            logger.error("Error during coalesced batch processing: {}", e.getMessage());
+        }
+        return (int) futures.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+    }
+
+    private <T> CompletableFuture<Void> submitCoalesced(T item, Function<T, Document> toDocument) {
+        Document document;
+        try {
+            document = toDocument.apply(item);
+        } catch (Exception e) {
+            embeddingErrorCounter.increment();
+            if (monitorService != null) {
+                monitorService.incrementErrors(1);
+            }
+            logger.error("Failed to prepare chunk for micro-batching: {}", e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+        return microBatcher.submit(document);
+    }
+
+    /**
+     * Write one coalesced batch. Blocks the micro-batcher while the concurrency limit is reached,
+     * so queued chunks keep accumulating into fuller batches.
+     */
+    private void writeMicroBatch(List<EmbeddingMicroBatcher.Pending> batch) {
+        if (!acquireBatchPermit(batch.size())) {
+            throw new IllegalStateException("Interrupted while waiting for an embedding slot");
+        }
+        CompletableFuture.runAsync(() -> {
+            long startNanos = System.nanoTime();
+            Exception failure = null;
+            try {
+                List<Document> documents = batch.stream()
+                    .map(EmbeddingMicroBatcher.Pending::getDocument)
+                    .toList();
+                int quarantined = writeBatch(documents);
+                int stored = batch.size() - quarantined;
+                embeddingProcessedCounter.increment(stored);
+                recordQuarantined(quarantined);
+
+                if (monitorService != null) {
+                    monitorService.incrementProcessedChunks(stored);
+                }
+                logger.debug("Stored micro-batch of {} documents", stored);
+                batch.forEach(pending -> pending.getFuture().complete(null));
+            } catch (Exception e) {
+                failure = e;
+                embeddingErrorCounter.increment(batch.size());
+
+                if (monitorService != null) {
+                    monitorService.incrementErrors(batch.size());
+                }
+                logger.error("Failed to store micro-batch of {} documents: {}", batch.size(), e.getMessage());
+                batch.forEach(pending -> pending.getFuture().completeExceptionally(e));
+            } finally {
+                concurrencyLimiter.release(System.nanoTime() - startNanos, failure);
+            }
+        }, embeddingExecutor);
     }
 
     /**
@@ -424,6 +649,12 @@ public class EmbeddingService {
             if (textWithMetadata.getSourcePath() != null) {
                 metadata.put("sourcePath", textWithMetadata.getSourcePath());
             }
+
+            // Chunks with a known position in a known file get a deterministic id
+            if (textWithMetadata.getSourcePath() != null && textWithMetadata.getChunkIndex() != null) {
+                metadata.put("chunkIndex", textWithMetadata.getChunkIndex());
+                return chunkDocument(textWithMetadata.getSourcePath(), textWithMetadata.getText(), metadata);
+            }
             
             return new Document(textWithMetadata.getText(), metadata);
         } catch (Exception e) {
@@ -432,6 +663,147 @@ public class EmbeddingService {
         }
     }
 
+    /**
+     * Wait for the concurrency limiter to admit another batch
+     * @return false if the calling thread was interrupted while waiting
+     */
+    private boolean acquireBatchPermit(int totalChunks) {
+        try {
+            concurrencyLimiter.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for an embedding slot, abandoning remaining batches of {} chunks", totalChunks);
+            return false;
+        }
+    }
+
+    /**
+     * Write a batch, bisecting on failure when failure isolation is enabled
+     * @return Number of documents quarantined
+     */
+    private int writeBatch(List<Document> documents) throws Exception {
+        if (chunkQuarantine == null) {
+            writeDocuments(documents);
+            return 0;
+        }
+        return writeIsolatingFailures(documents);
+    }
+
+    /**
+     * Recursively split a failing batch and retry the halves until the failing
+     * chunks are isolated. Only failures the input can cause are bisected; database,
+     * connection, throttling and server errors fail the whole batch instead of being
+     * re-embedded at every level and quarantined. Nothing retries that batch here: its
+     * chunks are counted as failed and the caller reports the file as failed.
+     */
+    private int writeIsolatingFailures(List<Document> documents) throws Exception {
+        try {
+            writeDocuments(documents);
+            return 0;
+        } catch (Exception e) {
+            if (!ChunkQuarantine.isCausedByInput(e)) {
+                throw e;
+            }
+            if (documents.size() == 1) {
+                Document document = documents.get(0);
+                chunkQuarantine.quarantine(document.getId(), document.getText(), document.getMetadata(), e);
+                return 1;
+            }
+            int middle = documents.size() / 2;
+            logger.debug("Batch of {} documents failed ({}), retrying halves", documents.size(), e.getMessage());
+            return writeIsolatingFailures(documents.subList(0, middle))
+                + writeIsolatingFailures(documents.subList(middle, documents.size()));
+        }
+    }
+
+    private void recordQuarantined(int quarantined) {
+        if (quarantined > 0) {
+            embeddingErrorCounter.increment(quarantined);
+            if (monitorService != null) {
+                monitorService.incrementErrors(quarantined);
+            }
+        }
+    }
+
+    /**
+     * Embed and persist a batch of documents, either through the VectorStore
+     * or by bulk-loading with binary COPY when the copy writer is configured.
+     * Both paths upsert on id; documents already stored are skipped when the existence check is enabled.
+     * The store stage timer excludes the embedding calls made inside the write, which are timed separately.
+     */
+    private void writeDocuments(List<Document> documents) throws Exception {
+        // A chunk repeated within a file shares its id, and one write must not upsert the same row twice
+        documents = distinctById(documents);
+        if (existingDocumentFilter != null) {
+            documents = existingDocumentFilter.removeExisting(documents);
+            if (documents.isEmpty()) {
+                return;
+            }
+        }
+        String documentType = StageMetrics.documentTypeOf(documents);
+        writePermits.acquire();
+        long start = System.nanoTime();
+        try (StageMetrics.Scope scope = stageMetrics.open(documentType)) {
+            try {
+                if (copyWriter != null) {
+                    copyWriter.write(documents);
+                } else {
+                    vectorStore.add(documents);
+                }
+            } finally {
+                stageMetrics.record(StageMetrics.STORE, documentType, copyWriter != null ? "pgvector-copy" : "pgvector",
+                        System.nanoTime() - start - scope.getEmbedNanos());
+            }
+        } finally {
+            writePermits.release();
+        }
+    }
+
+    private static List<Document> distinctById(List<Document> documents) {
+        Map<String, Document> byId = new java.util.LinkedHashMap<>();
+        for (Document document : documents) {
+            byId.putIfAbsent(document.getId(), document);
+        }
+        return byId.size() == documents.size() ? documents : List.copyOf(byId.values());
+    }
+
+    /**
+     * Delete the stored chunks of a source that are not among its current chunk ids. Call once
+     * every chunk of the source has been stored; does nothing when stale-chunk removal is disabled.
+     * @param sourcePath Source the chunks were read from
+     * @param currentIds {@link #chunkId} of every chunk the source produces now
+     */
+    public void removeStaleChunks(String sourcePath, java.util.Collection<String> currentIds) {
+        if (staleChunkRemover != null) {
+            staleChunkRemover.removeStale(sourcePath, currentIds);
+        }
+    }
+
+    /**
+     * Deterministic document id for a chunk, derived from its source and content hash. The position
+     * is left out, so chunks keep their ids when text is inserted before them, and reprocessing an
+     * unchanged file yields the same ids, so writes become upserts.
+     */
+    public static String chunkId(String sourcePath, String text) {
+        return chunkIdForHash(sourcePath, ContentHash.sha256Hex(text));
+    }
+
+    private static String chunkIdForHash(String sourcePath, String contentHash) {
+        return ContentHash.uuid(sourcePath, contentHash).toString();
+    }
+
+    /**
+     * A chunk document with its deterministic id, and its source and content hash in its metadata,
+     * so revised files can be compared chunk by chunk against what is stored
+     */
+    private static Document chunkDocument(String sourcePath, String text, Map<String, Object> metadata) {
+        String contentHash = ContentHash.sha256Hex(text);
+        metadata.put("contentHash", contentHash);
+        metadata.put("sourcePath", sourcePath);
+        return new Document(chunkIdForHash(sourcePath, contentHash), text, metadata);
+    }
+
     /**
      * Validate that reference number is a 6-digit integer
      */
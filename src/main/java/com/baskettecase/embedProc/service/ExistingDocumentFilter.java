@@ -0,0 +1,77 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Skips documents whose id is already present in the vector table.
+ * Chunk ids are derived from source path and content hash, so an existing id means the same
+ * text of the same file is already embedded and the embedding call can be avoided.
+ */
+@Service
+@Profile({"standalone", "cloud"})
+@ConditionalOnProperty(name = "app.embedding.skip-existing.enabled", havingValue = "true")
+public class ExistingDocumentFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExistingDocumentFilter.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String qualifiedTableName;
+    private final Counter skippedCounter;
+
+    public ExistingDocumentFilter(JdbcTemplate jdbcTemplate,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schemaName,
+                                  @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String tableName) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.qualifiedTableName = schemaName + "." + tableName;
+        this.skippedCounter = Counter.builder("embeddings.skipped.existing")
+                .description("Chunks skipped because they are already stored unchanged")
+                .register(meterRegistry);
+        logger.info("ExistingDocumentFilter initialized - checking {} before embedding", qualifiedTableName);
+    }
+
+    /**
+     * Remove the documents that are already stored
+     * @param documents Candidate documents
+     * @return The documents that still need to be embedded and written
+     */
+    public List<Document> removeExisting(List<Document> documents) {
+        try {
+            UUID[] ids = documents.stream().map(document -> UUID.fromString(document.getId())).toArray(UUID[]::new);
+            Set<String> existing = new HashSet<>(jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT id::text FROM " + qualifiedTableName + " WHERE id = ANY(?)");
+                statement.setArray(1, connection.createArrayOf("uuid", ids));
+                return statement;
+            }, (rs, rowNum) -> rs.getString(1)));
+            if (existing.isEmpty()) {
+                return documents;
+            }
+
+            skippedCounter.increment(existing.size());
+            logger.debug("Skipping {} of {} chunks already stored", existing.size(), documents.size());
+            return documents.stream()
+                    .filter(document -> !existing.contains(document.getId()))
+                    .toList();
+        } catch (Exception e) {
+            // Embedding again is always safe because writes upsert on id
+            logger.warn("Existence check failed, embedding all {} chunks: {}", documents.size(), e.getMessage());
+            return documents;
+        }
+    }
+}
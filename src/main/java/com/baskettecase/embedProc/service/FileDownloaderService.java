@@ -2,61 +2,204 @@ package com.baskettecase.embedProc.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpEntity;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 @Service
 public class FileDownloaderService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileDownloaderService.class);
     private final RestTemplate restTemplate;
+    // Caps concurrent downloads per instance; with virtual threads the thread count no longer does
+    private final Semaphore downloadPermits;
+    private final StageMetrics stageMetrics;
 
-    public FileDownloaderService(RestTemplate restTemplate) {
+    public FileDownloaderService(RestTemplate restTemplate,
+                                 @Value("${app.io.max-concurrent-downloads:8}") int maxConcurrentDownloads,
+                                 StageMetrics stageMetrics) {
         this.restTemplate = restTemplate;
+        this.downloadPermits = new Semaphore(maxConcurrentDownloads);
+        this.stageMetrics = stageMetrics;
     }
 
     /**
-     * Downloads a file from a URL to a temporary local file.
+     * Reads the response body of a download as it arrives
+     */
+    @FunctionalInterface
+    public interface BodyHandler<T> {
+        T handle(InputStream body) throws IOException;
+    }
+
+    /**
+     * Downloads a file from a URL to a temporary local file, copying the body as it arrives.
      * Handles both regular HTTP and WebHDFS URLs.
      * @param fileUrl The URL of the file to download.
      * @return A {@link File} object pointing to the temporary file, or {@code null} on failure.
      */
     public File downloadFileToTemp(String fileUrl) {
+        File tempFile = null;
         try {
-            File tempFile = File.createTempFile("embedproc_", ".txt");
+            tempFile = File.createTempFile("embedproc_", ".txt");
             tempFile.deleteOnExit();
             logger.info("Downloading file to temp: {} -> {}", fileUrl, tempFile.getAbsolutePath());
+            Path target = tempFile.toPath();
+            long bytes = streamFile(fileUrl, body -> Files.copy(body, target, StandardCopyOption.REPLACE_EXISTING));
+            logger.info("Downloaded {} bytes to temp file {}", bytes, tempFile.getAbsolutePath());
+            return tempFile;
+        } catch (Exception e) {
+            logger.error("Error downloading file {} to temp: {}", fileUrl, e.getMessage(), e);
+            if (tempFile != null && !tempFile.delete()) {
+                logger.warn("Failed to clean up temp file: {}", tempFile.getAbsolutePath());
+            }
+            return null;
+        }
+    }
 
+    /**
+     * Downloads a file from a URL, handing the response body to the handler as a stream so that
+     * neither the heap nor the disk holds the whole file. The download slot is held until the
+     * handler returns. The download stage time runs until the body has been read to its end.
+     * Handles both regular HTTP and WebHDFS URLs.
+     * @param fileUrl The URL of the file to download.
+     * @param handler Consumes the body; it must not use the stream after returning.
+     * @return The handler's result.
+     * @throws IOException If the download or the handler fails, or the response is not successful.
+     */
+    public <T> T streamFile(String fileUrl, BodyHandler<T> handler) throws IOException {
+        try {
+            downloadPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a download slot: " + fileUrl);
+        }
+        // Timed from the response, so queueing for a download slot is not counted
+        TimedBody[] timedBody = new TimedBody[1];
+        try {
             String fixedUrl = fixWebHdfsUrl(fileUrl);
-
-            HttpHeaders headers = new HttpHeaders();
-            if (isWebHdfsUrl(fixedUrl)) {
-                headers.set("User-Agent", "embedProc/1.0");
-            }
-            HttpEntity<String> entity = new HttpEntity<>(headers);
             URI uri = new URI(fixedUrl);
+            RequestCallback requestCallback = request -> {
+                if (isWebHdfsUrl(fixedUrl)) {
+                    request.getHeaders().set("User-Agent", "embedProc/1.0");
+                }
+            };
+            ResponseExtractor<T> responseExtractor = response -> {
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    throw new IOException("Failed to download file from " + fileUrl + ". Status: " + response.getStatusCode());
+                }
+                timedBody[0] = new TimedBody(response.getBody(), fileUrl);
+                return handler.handle(timedBody[0]);
+            };
+            return restTemplate.execute(uri, HttpMethod.GET, requestCallback, responseExtractor);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid file URL " + fileUrl + ": " + e.getMessage(), e);
+        } catch (RestClientException e) {
+            // Unwrap I/O errors raised while reading the body or inside the handler
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Failed to download file from " + fileUrl + ": " + e.getMessage(), e);
+        } finally {
+            downloadPermits.release();
+            if (timedBody[0] != null) {
+                timedBody[0].finish();
+            }
+        }
+    }
 
-            ResponseEntity<byte[]> response = restTemplate.exchange(uri, HttpMethod.GET, entity, byte[].class);
+    /**
+     * Response body that records the download stage once it has been read to the end
+     */
+    private final class TimedBody extends FilterInputStream {
+        private final String fileUrl;
+        private final long start = System.nanoTime();
+        private long bytes;
+        private boolean finished;
+
+        private TimedBody(InputStream body, String fileUrl) {
+            super(body);
+            this.fileUrl = fileUrl;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            count(read < 0 ? -1 : 1);
+            return read;
+        }
 
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                byte[] content = response.getBody();
-                Files.write(tempFile.toPath(), content);
-                logger.info("Downloaded {} bytes to temp file {}", content.length, tempFile.getAbsolutePath());
-                return tempFile;
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            count(read);
+            return read;
+        }
+
+        private void count(int read) {
+            if (read < 0) {
+                finish();
             } else {
-                logger.error("Failed to download file from {}. Status: {}", fileUrl, response.getStatusCode());
+                bytes += read;
+            }
+        }
+
+        void finish() {
+            if (!finished) {
+                finished = true;
+                stageMetrics.record(StageMetrics.DOWNLOAD, DocumentType.fromUrl(fileUrl).getValue(),
+                        isWebHdfsUrl(fileUrl) ? "webhdfs" : "http", System.nanoTime() - start);
+                logger.debug("Streamed {} bytes from {}", bytes, fileUrl);
+            }
+        }
+    }
+
+    /**
+     * Identifies the current version of a remote file without downloading it: the length and
+     * modification time from WebHDFS, else the ETag or the Last-Modified and Content-Length
+     * headers of a HEAD request.
+     * @param fileUrl The URL of the file.
+     * @return The version, or {@code null} if the server does not report one or cannot be reached.
+     */
+    public String sourceVersion(String fileUrl) {
+        try {
+            if (isWebHdfsUrl(fileUrl)) {
+                URI uri = new URI(fileUrl.split("\\?")[0] + "?op=GETFILESTATUS");
+                Map<?, ?> response = restTemplate.getForObject(uri, Map.class);
+                Object status = response != null ? response.get("FileStatus") : null;
+                if (status instanceof Map<?, ?> fileStatus && fileStatus.get("modificationTime") != null) {
+                    return fileStatus.get("length") + "@" + fileStatus.get("modificationTime");
+                }
                 return null;
             }
+            HttpHeaders headers = restTemplate.headForHeaders(new URI(fileUrl));
+            if (headers.getETag() != null) {
+                return headers.getETag();
+            }
+            if (headers.getLastModified() > 0 && headers.getContentLength() >= 0) {
+                return headers.getContentLength() + "@" + headers.getLastModified();
+            }
+            return null;
         } catch (Exception e) {
-            logger.error("Error downloading file {} to temp: {}", fileUrl, e.getMessage(), e);
+            logger.warn("Could not determine the version of {}: {}", fileUrl, e.getMessage());
             return null;
         }
     }
@@ -0,0 +1,52 @@
+package com.baskettecase.embedProc.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Packs words into windows of a fixed token budget regardless of sentence and paragraph
+ * structure, so every chunk but the last of a document is filled to the budget. The budget is
+ * counted with its own tokenizer whatever app.chunking.unit says; the tokenizer is created the
+ * first time the strategy is used.
+ */
+@Service
+public class FixedTokenChunkingStrategy implements ChunkingStrategy {
+
+    private final int maxTokens;
+    private final String encodingName;
+    private final String embeddingModel;
+    private volatile ChunkTokenizer tokenizer;
+
+    public FixedTokenChunkingStrategy(@Value("${app.chunking.fixed-token.max-tokens:${app.chunking.max-tokens-per-chunk:512}}") int maxTokens,
+                                      @Value("${app.chunking.tokenizer.encoding:}") String encodingName,
+                                      @Value("${spring.ai.openai.embedding.options.model:${spring.ai.ollama.embedding.options.model:}}") String embeddingModel) {
+        this.maxTokens = maxTokens;
+        this.encodingName = encodingName;
+        this.embeddingModel = embeddingModel;
+    }
+
+    @Override
+    public String getName() {
+        return "fixed-token";
+    }
+
+    @Override
+    public int[] units(CharSequence paragraph) {
+        return ParagraphPieces.wordBounds(paragraph);
+    }
+
+    @Override
+    public ChunkTokenizer getTokenizer() {
+        ChunkTokenizer current = tokenizer;
+        if (current == null) {
+            synchronized (this) {
+                current = tokenizer;
+                if (current == null) {
+                    current = new ChunkTokenizer(maxTokens, encodingName, embeddingModel);
+                    tokenizer = current;
+                }
+            }
+        }
+        return current;
+    }
+}
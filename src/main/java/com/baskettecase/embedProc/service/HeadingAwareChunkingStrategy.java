@@ -0,0 +1,85 @@
+package com.baskettecase.embedProc.service;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Packs paragraphs like the paragraph strategy, but starts a new chunk at every heading so a
+ * section is never split across the end of one chunk and the start of another. A paragraph
+ * starts with a heading if its first line is a Markdown heading, or a short line without
+ * terminal punctuation that is numbered ("4.2 Exclusions"), starts with Section, Article,
+ * Chapter or Part, or is in capitals.
+ */
+@Service
+public class HeadingAwareChunkingStrategy implements ChunkingStrategy {
+
+    // Longer first lines are taken for text rather than headings
+    private static final int MAX_HEADING_WORDS = 12;
+    private static final String[] HEADING_WORDS = {"section ", "article ", "chapter ", "part "};
+
+    @Override
+    public String getName() {
+        return "heading-aware";
+    }
+
+    @Override
+    public boolean startsSection(CharSequence paragraph) {
+        int lineEnd = 0;
+        while (lineEnd < paragraph.length() && paragraph.charAt(lineEnd) != '\n' && paragraph.charAt(lineEnd) != '\r') {
+            lineEnd++;
+        }
+        String line = paragraph.subSequence(0, lineEnd).toString().trim();
+        return isHeading(line);
+    }
+
+    static boolean isHeading(String line) {
+        if (line.isEmpty()) {
+            return false;
+        }
+        int hashes = 0;
+        while (hashes < line.length() && line.charAt(hashes) == '#') {
+            hashes++;
+        }
+        if (hashes >= 1 && hashes <= 6 && hashes < line.length() && line.charAt(hashes) == ' ') {
+            return true;
+        }
+
+        char last = line.charAt(line.length() - 1);
+        if (last == '.' || last == ',' || last == ';' || last == '?' || last == '!'
+                || TextChunkingService.countMeaningfulWords(line) > MAX_HEADING_WORDS) {
+            return false;
+        }
+        return isNumbered(line) || startsWithHeadingWord(line) || isCapitals(line);
+    }
+
+    // "4 Scope", "4.2 Exclusions" or "4.2. Exclusions", followed by a title
+    private static boolean isNumbered(String line) {
+        int i = 0;
+        while (i < line.length() && (Character.isDigit(line.charAt(i)) || (i > 0 && line.charAt(i) == '.'))) {
+            i++;
+        }
+        return i > 0 && i < line.length() && line.charAt(i) == ' ' && Character.isLetter(line.charAt(line.length() - 1));
+    }
+
+    private static boolean startsWithHeadingWord(String line) {
+        for (String word : HEADING_WORDS) {
+            if (line.regionMatches(true, 0, word, 0, word.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCapitals(String line) {
+        int letters = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (Character.isLowerCase(ch)) {
+                return false;
+            }
+            if (Character.isUpperCase(ch)) {
+                letters++;
+            }
+        }
+        return letters >= 3;
+    }
+}
@@ -0,0 +1,259 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EmbeddingModel decorator that hedges slow requests. Each request goes to the primary model;
+ * if it has not answered within the configured percentile of recent primary latencies, the same
+ * request is sent to the secondary model. The first successful response wins and the other call
+ * is cancelled. Both models must produce embeddings with the same number of dimensions. This is
+ * checked on first use rather than at construction, as asking a model may be a remote call; if
+ * they differ, hedging is disabled and the primary is used alone. Responses from the secondary
+ * are marked in their metadata, see {@link #answeredBySecondary(EmbeddingResponse)}.
+ */
+public class HedgedEmbeddingModel implements EmbeddingModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(HedgedEmbeddingModel.class);
+
+    // Response metadata entry set when the secondary model answered
+    private static final String SECONDARY_METADATA_KEY = "embedproc.hedge.secondary";
+
+    private final EmbeddingModel primary;
+    private final EmbeddingModel secondary;
+    private final Executor executor;
+    private volatile int dimensions = -1;
+    private volatile boolean hedging = true;
+    private final double percentile;
+    private final long initialDelayNanos;
+    private final long minDelayNanos;
+    private final LatencyWindow primaryLatencies;
+    private final Counter hedgesFired;
+    private final Counter primaryWins;
+    private final Counter secondaryWins;
+
+    public HedgedEmbeddingModel(EmbeddingModel primary,
+                                EmbeddingModel secondary,
+                                Executor executor,
+                                MeterRegistry meterRegistry,
+                                double percentile,
+                                long initialDelayMillis,
+                                long minDelayMillis,
+                                int windowSize) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.executor = executor;
+        this.percentile = percentile;
+        this.initialDelayNanos = TimeUnit.MILLISECONDS.toNanos(initialDelayMillis);
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.primaryLatencies = new LatencyWindow(windowSize);
+
+        this.hedgesFired = Counter.builder("embeddings.hedge.fired")
+                .description("Embedding requests re-issued to the secondary model")
+                .register(meterRegistry);
+        this.primaryWins = Counter.builder("embeddings.hedge.wins")
+                .description("Hedged embedding requests by winning model")
+                .tag("model", "primary")
+                .register(meterRegistry);
+        this.secondaryWins = Counter.builder("embeddings.hedge.wins")
+                .description("Hedged embedding requests by winning model")
+                .tag("model", "secondary")
+                .register(meterRegistry);
+        Gauge.builder("embeddings.hedge.delay", this, model -> model.hedgeDelayNanos() / 1_000_000d)
+                .description("Current hedge delay in milliseconds")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        CompletionService<EmbeddingResponse> completion = new ExecutorCompletionService<>(executor);
+        long start = System.nanoTime();
+        Future<EmbeddingResponse> primaryCall = completion.submit(() -> primary.call(request));
+        Future<EmbeddingResponse> secondaryCall = null;
+        try {
+            Future<EmbeddingResponse> done = completion.poll(hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+            if (done == null && !hedgingAvailable()) {
+                done = completion.take();
+            }
+            if (done != null) {
+                EmbeddingResponse response = done.get();
+                primaryLatencies.record(System.nanoTime() - start);
+                return response;
+            }
+
+            int expectedDimensions = dimensions;
+            hedgesFired.increment();
+            secondaryCall = completion.submit(() -> markSecondary(checkDimensions(secondary.call(request), expectedDimensions)));
+            logger.debug("Primary embedding call exceeded {} ms, hedging to secondary model",
+                        TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos()));
+
+            ExecutionException firstFailure = null;
+            for (int pending = 2; pending > 0; pending--) {
+                done = completion.take();
+                try {
+                    EmbeddingResponse response = done.get();
+                    if (done == primaryCall) {
+                        primaryLatencies.record(System.nanoTime() - start);
+                        primaryWins.increment();
+                    } else {
+                        // The cancelled primary took at least this long; leaving it out would
+                        // drag the percentile down and hedge ever more requests
+                        primaryLatencies.record(System.nanoTime() - start);
+                        secondaryWins.increment();
+                    }
+                    return response;
+                } catch (ExecutionException e) {
+                    // Give the other call the chance to answer before failing
+                    if (firstFailure == null) {
+                        firstFailure = e;
+                    }
+                }
+            }
+            throw firstFailure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for embedding response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Embedding request failed: " + cause.getMessage(), cause);
+        } finally {
+            primaryCall.cancel(true);
+            if (secondaryCall != null) {
+                secondaryCall.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        resolveDimensions();
+        return dimensions;
+    }
+
+    boolean hedgingAvailable() {
+        resolveDimensions();
+        return hedging;
+    }
+
+    private void resolveDimensions() {
+        if (dimensions >= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (dimensions >= 0) {
+                return;
+            }
+            int primaryDimensions = primary.dimensions();
+            try {
+                int secondaryDimensions = secondary.dimensions();
+                if (primaryDimensions != secondaryDimensions) {
+                    hedging = false;
+                    logger.error("Hedging disabled: embedding models have different dimensions: {} vs {}",
+                                primaryDimensions, secondaryDimensions);
+                }
+            } catch (RuntimeException e) {
+                hedging = false;
+                logger.error("Hedging disabled: secondary model could not report its dimensions: {}", e.getMessage());
+            }
+            dimensions = primaryDimensions;
+        }
+    }
+
+    /**
+     * Delay before hedging: the configured percentile of recent primary latencies,
+     * or the initial delay until enough samples have been collected
+     */
+    long hedgeDelayNanos() {
+        long observed = primaryLatencies.percentile(percentile);
+        return observed < 0 ? initialDelayNanos : Math.max(minDelayNanos, observed);
+    }
+
+    /**
+     * Whether a response was answered by the secondary model of a hedged call
+     */
+    public static boolean answeredBySecondary(EmbeddingResponse response) {
+        return response.getMetadata() != null && Boolean.TRUE.equals(response.getMetadata().get(SECONDARY_METADATA_KEY));
+    }
+
+    private static EmbeddingResponse markSecondary(EmbeddingResponse response) {
+        EmbeddingResponseMetadata metadata = response.getMetadata();
+        Map<String, Object> entries = new HashMap<>();
+        if (metadata != null) {
+            metadata.entrySet().forEach(entry -> entries.put(entry.getKey(), entry.getValue()));
+        }
+        entries.put(SECONDARY_METADATA_KEY, true);
+        return new EmbeddingResponse(response.getResults(), new EmbeddingResponseMetadata(
+                metadata != null ? metadata.getModel() : "", metadata != null ? metadata.getUsage() : null, entries));
+    }
+
+    private static EmbeddingResponse checkDimensions(EmbeddingResponse response, int dimensions) {
+        for (Embedding embedding : response.getResults()) {
+            if (embedding.getOutput().length != dimensions) {
+                throw new IllegalStateException("Secondary model returned " + embedding.getOutput().length
+                        + " dimensions, expected " + dimensions);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Fixed-size ring of recent latencies
+     */
+    static final class LatencyWindow {
+        private static final int MIN_SAMPLES = 20;
+
+        private final long[] samples;
+        private int next;
+        private int count;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * @return The given percentile in nanoseconds, or -1 if too few samples have been recorded
+         */
+        synchronized long percentile(double percentile) {
+            if (count < Math.min(MIN_SAMPLES, samples.length)) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.max(0, Math.min(index, count - 1))];
+        }
+    }
+}
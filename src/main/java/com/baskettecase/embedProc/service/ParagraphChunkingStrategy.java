@@ -0,0 +1,15 @@
+package com.baskettecase.embedProc.service;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Packs whole paragraphs, splitting only paragraphs over the limit. The default strategy.
+ */
+@Service
+public class ParagraphChunkingStrategy implements ChunkingStrategy {
+
+    @Override
+    public String getName() {
+        return "paragraph";
+    }
+}
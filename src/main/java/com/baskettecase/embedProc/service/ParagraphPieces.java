@@ -0,0 +1,203 @@
+package com.baskettecase.embedProc.service;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+/**
+ * The pieces of a paragraph fed to the packer in its place, each within the chunk limit where
+ * possible. The paragraph is cut into units, such as sentences. With packUnits, consecutive
+ * units are packed greedily into pieces, otherwise each unit is a piece. A unit over the limit
+ * on its own is packed word by word instead. Pieces start and end at words, and only a single
+ * word over the limit, such as a very long token run, can make a piece exceed it.
+ */
+final class ParagraphPieces {
+    private final CharSequence paragraph;
+    private final int limit;
+    private final ToIntFunction<CharSequence> measure;
+    // Start and end offsets of each piece in the paragraph, in pairs
+    private int[] bounds = new int[16];
+    private int count;
+    private int index;
+    private int pieceStart = -1;
+    private int pieceEnd;
+    private int pieceSize;
+    private boolean splitsUnits;
+
+    /**
+     * @param units Start and end offsets of the units in pairs, in order and covering every word
+     * @param measure Size of a stretch of the paragraph in the limit's unit
+     */
+    ParagraphPieces(CharSequence paragraph, int[] units, boolean packUnits, int limit, ToIntFunction<CharSequence> measure) {
+        this.paragraph = paragraph;
+        this.limit = limit;
+        this.measure = measure;
+        for (int u = 0; u + 1 < units.length; u += 2) {
+            int size = size(units[u], units[u + 1]);
+            if (!packUnits && pieceStart >= 0) {
+                closePiece();
+            }
+            if (size <= limit) {
+                addUnit(units[u], units[u + 1], size);
+            } else {
+                splitsUnits = true;
+                addWords(units[u], units[u + 1]);
+            }
+        }
+        if (pieceStart >= 0) {
+            closePiece();
+        }
+    }
+
+    boolean hasNext() {
+        return index < count;
+    }
+
+    int index() {
+        return index;
+    }
+
+    /**
+     * The whitespace between the previous piece and the next one
+     */
+    CharSequence whitespaceBefore() {
+        return paragraph.subSequence(bounds[2 * index - 1], bounds[2 * index]);
+    }
+
+    CharSequence next() {
+        CharSequence piece = paragraph.subSequence(bounds[2 * index], bounds[2 * index + 1]);
+        index++;
+        return piece;
+    }
+
+    /**
+     * Whether a unit had to be split between words
+     */
+    boolean splitsUnits() {
+        return splitsUnits;
+    }
+
+    private void addWords(int start, int end) {
+        int i = start;
+        while (i < end) {
+            int wordStart = i;
+            while (i < end && !TextChunkingService.isRegexWhitespace(paragraph.charAt(i))) {
+                i++;
+            }
+            addUnit(wordStart, i, size(wordStart, i));
+            while (i < end && TextChunkingService.isRegexWhitespace(paragraph.charAt(i))) {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Size of a stretch, whether it starts a piece or follows whitespace, which a BPE tokenizer
+     * may spend a token on, so that the sizes of a piece's units add up to at least the piece's size
+     */
+    private int size(int start, int end) {
+        int size = measure.applyAsInt(paragraph.subSequence(start, end));
+        int from = start;
+        while (from > 0 && TextChunkingService.isRegexWhitespace(paragraph.charAt(from - 1))) {
+            from--;
+        }
+        return from == start ? size : Math.max(size, measure.applyAsInt(paragraph.subSequence(from, end)));
+    }
+
+    private void addUnit(int start, int end, int size) {
+        if (pieceStart >= 0 && pieceSize + size > limit) {
+            closePiece();
+        }
+        if (pieceStart < 0) {
+            pieceStart = start;
+            pieceSize = 0;
+        }
+        pieceEnd = end;
+        pieceSize += size;
+    }
+
+    private void closePiece() {
+        if (2 * count + 2 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[2 * count] = pieceStart;
+        bounds[2 * count + 1] = pieceEnd;
+        count++;
+        pieceStart = -1;
+    }
+
+    /**
+     * Start and end offsets, in pairs, of the words of a text
+     */
+    static int[] wordBounds(CharSequence text) {
+        int[] bounds = new int[64];
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && TextChunkingService.isRegexWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            int wordStart = i;
+            while (i < length && !TextChunkingService.isRegexWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (count + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count++] = wordStart;
+            bounds[count++] = i;
+        }
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Start and end offsets, in pairs, of the sentences of a text. A sentence runs up to a word
+     * ending in terminal punctuation, before any closing quotes or brackets.
+     */
+    static int[] sentenceBounds(CharSequence text) {
+        int[] bounds = new int[16];
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length && TextChunkingService.isRegexWhitespace(text.charAt(i))) {
+            i++;
+        }
+        while (i < length) {
+            int sentenceStart = i;
+            int sentenceEnd;
+            boolean endOfSentence;
+            do {
+                while (i < length && !TextChunkingService.isRegexWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                sentenceEnd = i;
+                endOfSentence = endsSentence(text, sentenceEnd);
+                while (i < length && TextChunkingService.isRegexWhitespace(text.charAt(i))) {
+                    i++;
+                }
+            } while (i < length && !endOfSentence);
+
+            if (count + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count++] = sentenceStart;
+            bounds[count++] = sentenceEnd;
+        }
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Whether the word ending at the offset ends in terminal punctuation, before any closing
+     * quotes or brackets
+     */
+    static boolean endsSentence(CharSequence text, int wordEnd) {
+        int last = wordEnd - 1;
+        while (last >= 0 && "\"')]\u201D\u2019".indexOf(text.charAt(last)) >= 0) {
+            last--;
+        }
+        return last >= 0 && ".!?\u2026\u3002\uFF01\uFF1F".indexOf(text.charAt(last)) >= 0;
+    }
+}
@@ -0,0 +1,167 @@
+package com.baskettecase.embedProc.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits a character stream into paragraphs exactly as {@code split("\\n\\s*\\n")} would:
+ * a run of regex whitespace containing at least two line feeds separates paragraphs.
+ * Whitespace on either side of the separating line feeds is dropped, which callers trim anyway.
+ * A paragraph reaching capChars characters is returned in parts, cut after the last sentence
+ * in the latter half of the buffer or else at the last whitespace, so that memory stays bounded
+ * on text without blank lines.
+ */
+final class ParagraphReader implements Iterator<String> {
+    private final Reader reader;
+    private final int capChars;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private final StringBuilder paragraph = new StringBuilder();
+    private final StringBuilder whitespace = new StringBuilder();
+    private int lineFeeds;
+    private String nextParagraph;
+    private boolean endOfInput;
+    // Parts: whether the paragraph being read was cut, and the whitespace at the last cut
+    private boolean cut;
+    private String cutJoiner;
+    private boolean nextIsPart;
+    private String nextJoiner;
+    private boolean lastIsPart;
+    private String lastJoiner;
+
+    ParagraphReader(Reader reader, int capChars) {
+        this.reader = reader;
+        this.capChars = capChars;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextParagraph == null && !endOfInput) {
+            readParagraph();
+        }
+        return nextParagraph != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String result = nextParagraph;
+        nextParagraph = null;
+        lastIsPart = nextIsPart;
+        lastJoiner = nextJoiner;
+        return result;
+    }
+
+    /**
+     * Whether the paragraph last returned is a part of a longer paragraph
+     */
+    boolean lastIsPart() {
+        return lastIsPart;
+    }
+
+    /**
+     * The whitespace between the previous part and the part last returned, or null if the
+     * part begins its paragraph
+     */
+    String lastJoiner() {
+        return lastJoiner;
+    }
+
+    private void readParagraph() {
+        int c;
+        while ((c = read()) != -1) {
+            char ch = (char) c;
+            if (TextChunkingService.isRegexWhitespace(ch)) {
+                whitespace.append(ch);
+                if (ch == '\n') {
+                    lineFeeds++;
+                }
+                continue;
+            }
+            if (lineFeeds >= 2) {
+                emit(paragraph.toString(), false);
+                paragraph.setLength(0);
+                clearWhitespace();
+                paragraph.append(ch);
+                return;
+            }
+            paragraph.append(whitespace).append(ch);
+            clearWhitespace();
+            if (paragraph.length() >= capChars) {
+                emitPart();
+                return;
+            }
+        }
+
+        endOfInput = true;
+        if (lineFeeds < 2) {
+            paragraph.append(whitespace);
+        }
+        emit(paragraph.toString(), false);
+        paragraph.setLength(0);
+        clearWhitespace();
+    }
+
+    /**
+     * Return the paragraph up to the cut and keep the rest buffered
+     */
+    private void emitPart() {
+        int cutAt = -1;
+        for (int i = paragraph.length() - 1; i > capChars / 2 && cutAt < 0; i--) {
+            if (TextChunkingService.isRegexWhitespace(paragraph.charAt(i)) && !TextChunkingService.isRegexWhitespace(paragraph.charAt(i - 1))
+                    && ParagraphPieces.endsSentence(paragraph, i)) {
+                cutAt = i;
+            }
+        }
+        for (int i = paragraph.length() - 1; i > 0 && cutAt < 0; i--) {
+            if (TextChunkingService.isRegexWhitespace(paragraph.charAt(i)) && !TextChunkingService.isRegexWhitespace(paragraph.charAt(i - 1))) {
+                cutAt = i;
+            }
+        }
+        int restAt = cutAt;
+        if (cutAt < 0) {
+            // A single word as long as the buffer is cut where it stands
+            cutAt = restAt = paragraph.length();
+        }
+        while (restAt < paragraph.length() && TextChunkingService.isRegexWhitespace(paragraph.charAt(restAt))) {
+            restAt++;
+        }
+        emit(paragraph.substring(0, cutAt), true);
+        cutJoiner = paragraph.substring(cutAt, restAt);
+        paragraph.delete(0, restAt);
+    }
+
+    private void emit(String text, boolean cutHere) {
+        nextParagraph = text;
+        nextIsPart = cut || cutHere;
+        nextJoiner = cut ? cutJoiner : null;
+        cut = cutHere;
+    }
+
+    private int read() {
+        if (position == limit) {
+            try {
+                limit = reader.read(buffer, 0, buffer.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private void clearWhitespace() {
+        whitespace.setLength(0);
+        lineFeeds = 0;
+    }
+}
@@ -0,0 +1,95 @@
+package com.baskettecase.embedProc.service;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits text into paragraphs exactly as {@code split("\\n\\s*\\n")} would, without a regex:
+ * each run of regex whitespace containing at least two line feeds is a separator, spanning
+ * from its first to its last line feed. Paragraphs are subsequences of the text.
+ */
+final class ParagraphSplitter implements Iterator<CharSequence> {
+    private final CharSequence text;
+    private final int end;
+    private int start;
+    private boolean done;
+
+    ParagraphSplitter(CharSequence text) {
+        this(text, 0, text.length());
+    }
+
+    ParagraphSplitter(CharSequence text, int start, int end) {
+        this.text = text;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Start of the first paragraph separator at or after the given offset. A whitespace run the
+     * offset falls inside is skipped, so the separator found is a whole run, and a segment starting
+     * there begins with an empty paragraph, exactly as the run splits the complete text.
+     * @return Offset of the separator's whitespace run, or -1 if there is none
+     */
+    static int nextSeparator(String text, int from) {
+        int length = text.length();
+        int i = from;
+        while (i < length && TextChunkingService.isRegexWhitespace(text.charAt(i))) {
+            i++;
+        }
+        while (i < length) {
+            if (!TextChunkingService.isRegexWhitespace(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            int lineFeeds = 0;
+            while (i < length && TextChunkingService.isRegexWhitespace(text.charAt(i))) {
+                if (text.charAt(i) == '\n') {
+                    lineFeeds++;
+                }
+                i++;
+            }
+            if (lineFeeds >= 2) {
+                return runStart;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !done;
+    }
+
+    @Override
+    public CharSequence next() {
+        if (done) {
+            throw new NoSuchElementException();
+        }
+        int length = end;
+        int i = start;
+        while (i < length) {
+            if (text.charAt(i) != '\n') {
+                i++;
+                continue;
+            }
+            // Scan the whitespace run after this line feed for the last line feed in it
+            int lastLineFeed = -1;
+            int j = i + 1;
+            while (j < length && TextChunkingService.isRegexWhitespace(text.charAt(j))) {
+                if (text.charAt(j) == '\n') {
+                    lastLineFeed = j;
+                }
+                j++;
+            }
+            if (lastLineFeed >= 0) {
+                CharSequence paragraph = text.subSequence(start, i);
+                start = lastLineFeed + 1;
+                return paragraph;
+            }
+            i = j;
+        }
+        done = true;
+        return text.subSequence(start, end);
+    }
+}
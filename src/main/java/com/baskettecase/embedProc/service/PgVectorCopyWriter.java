@@ -0,0 +1,143 @@
+package com.baskettecase.embedProc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes documents to the pgvector table without going through VectorStore.add.
+ * Embeddings are computed first with no database connection held, then all rows of the
+ * batch are streamed in a single {@code COPY ... FROM STDIN (FORMAT BINARY)} into a
+ * transaction-scoped staging table and upserted into the vector table on id, so re-processed
+ * chunks with deterministic ids replace their previous rows instead of failing or duplicating.
+ * The table layout matches the one created by Spring AI's PgVectorStore
+ * (id uuid, content text, metadata json, embedding vector).
+ */
+@Service
+@Profile({"standalone", "cloud"})
+@ConditionalOnProperty(name = "app.embedding.write-mode", havingValue = "copy")
+public class PgVectorCopyWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PgVectorCopyWriter.class);
+
+    // PGCOPY binary format signature, flags and header extension length
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String STAGING_TABLE = "embedproc_copy_staging";
+
+    private final EmbeddingModel embeddingModel;
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final String qualifiedTableName;
+    private final String upsertSql;
+
+    public PgVectorCopyWriter(EmbeddingModel embeddingModel,
+                              DataSource dataSource,
+                              ObjectMapper objectMapper,
+                              @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schemaName,
+                              @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String tableName) {
+        this.embeddingModel = embeddingModel;
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.qualifiedTableName = schemaName + "." + tableName;
+        // DISTINCT ON keeps a batch holding the same id twice from touching one row twice
+        this.upsertSql = "INSERT INTO " + qualifiedTableName + " (id, content, metadata, embedding) " +
+                "SELECT DISTINCT ON (id) id, content, metadata, embedding FROM " + STAGING_TABLE + " " +
+                "ON CONFLICT (id) DO UPDATE SET content = EXCLUDED.content, " +
+                "metadata = EXCLUDED.metadata, embedding = EXCLUDED.embedding";
+        logger.info("PgVectorCopyWriter initialized - bulk loading into {} via binary COPY", qualifiedTableName);
+    }
+
+    /**
+     * Embed the documents and bulk-load them into the vector table
+     * @param documents Documents with text, id and metadata
+     */
+    public void write(List<Document> documents) throws Exception {
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        // Compute embeddings before touching the pool so no connection waits on the provider
+        List<String> texts = documents.stream().map(Document::getText).toList();
+        List<float[]> embeddings = embeddingModel.embed(texts);
+        if (embeddings.size() != documents.size()) {
+            throw new IllegalStateException("Embedding model returned " + embeddings.size()
+                    + " vectors for " + documents.size() + " documents");
+        }
+
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TEMP TABLE " + STAGING_TABLE + " (LIKE " + qualifiedTableName + ") ON COMMIT DROP");
+                copyRows(connection, documents, embeddings);
+                statement.executeUpdate(upsertSql);
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        logger.debug("Copied {} rows into {} in {} ms", documents.size(), qualifiedTableName,
+                    (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void copyRows(Connection connection, List<Document> documents, List<float[]> embeddings) throws Exception {
+        String sql = "COPY " + STAGING_TABLE + " (id, content, metadata, embedding) FROM STDIN (FORMAT BINARY)";
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        try (DataOutputStream out = new DataOutputStream(new PGCopyOutputStream(pgConnection, sql, COPY_BUFFER_SIZE))) {
+            out.write(COPY_SIGNATURE);
+            out.writeInt(0);
+            out.writeInt(0);
+            for (int i = 0; i < documents.size(); i++) {
+                writeRow(out, documents.get(i), embeddings.get(i));
+            }
+            out.writeShort(-1);
+        }
+    }
+
+    private void writeRow(DataOutputStream out, Document document, float[] embedding) throws IOException {
+        out.writeShort(4);
+
+        UUID id = UUID.fromString(document.getId());
+        out.writeInt(16);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+
+        writeBytes(out, document.getText().getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, objectMapper.writeValueAsBytes(document.getMetadata()));
+
+        // pgvector binary format: int16 dimensions, int16 unused, float4 values
+        out.writeInt(4 + embedding.length * Float.BYTES);
+        out.writeShort(embedding.length);
+        out.writeShort(0);
+        for (float value : embedding) {
+            out.writeFloat(value);
+        }
+    }
+
+    private void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
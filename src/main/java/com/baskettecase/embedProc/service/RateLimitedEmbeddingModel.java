@@ -0,0 +1,46 @@
+package com.baskettecase.embedProc.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * EmbeddingModel decorator that waits for provider quota from the
+ * {@link EmbeddingRateLimiter} before each request is sent.
+ */
+public class RateLimitedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingRateLimiter rateLimiter;
+
+    public RateLimitedEmbeddingModel(EmbeddingModel delegate, EmbeddingRateLimiter rateLimiter) {
+        this.delegate = delegate;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        int estimatedTokens = 0;
+        for (String input : request.getInstructions()) {
+            estimatedTokens += TokenEstimator.estimate(input);
+        }
+        try {
+            rateLimiter.acquire(estimatedTokens);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for embedding quota", e);
+        }
+        return delegate.call(request);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
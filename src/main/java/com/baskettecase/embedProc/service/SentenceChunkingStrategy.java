@@ -0,0 +1,22 @@
+package com.baskettecase.embedProc.service;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Packs sentences, so chunks fill up to the limit at any sentence end rather than only at
+ * paragraph ends. Suits reference material with long paragraphs.
+ */
+@Service
+public class SentenceChunkingStrategy implements ChunkingStrategy {
+
+    @Override
+    public String getName() {
+        return "sentence";
+    }
+
+    @Override
+    public int[] units(CharSequence paragraph) {
+        int[] sentences = ParagraphPieces.sentenceBounds(paragraph);
+        return sentences.length > 2 ? sentences : null;
+    }
+}
@@ -0,0 +1,124 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms for the download, chunk, embed and store stages.
+ * All stages share the embeddings.stage.duration timer, tagged by stage, document type and backend,
+ * so a slow file can be attributed to WebHDFS, the chunker, the embedding provider or pgvector.
+ * The vector store embeds inside its write, so embedding time is collected in a per-thread
+ * {@link Scope} and subtracted from the write to give the store time alone.
+ */
+@Service
+public class StageMetrics {
+
+    public static final String TIMER_NAME = "embeddings.stage.duration";
+
+    public static final String DOWNLOAD = "download";
+    public static final String CHUNK = "chunk";
+    public static final String EMBED = "embed";
+    public static final String STORE = "store";
+
+    private static final ThreadLocal<Scope> currentScope = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+
+    public StageMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Record the duration of one stage
+     * @param stage One of download, chunk, embed or store
+     * @param documentType Document type tag value
+     * @param backend The system that did the work, e.g. webhdfs, ollama or pgvector
+     * @param nanos Elapsed time in nanoseconds
+     */
+    public void record(String stage, String documentType, String backend, long nanos) {
+        timer(stage, documentType, backend).record(Math.max(nanos, 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record an embedding call, attributing it to the document type of the enclosing scope
+     */
+    public void recordEmbedding(String backend, long nanos) {
+        Scope scope = currentScope.get();
+        if (scope != null) {
+            scope.embedNanos += nanos;
+        }
+        record(EMBED, scope != null ? scope.documentType : DocumentType.UNKNOWN.getValue(), backend, nanos);
+    }
+
+    /**
+     * Open a scope on the current thread so embedding calls made inside it are tagged with
+     * the document type and their time can be separated from the surrounding write
+     */
+    public Scope open(String documentType) {
+        Scope scope = new Scope(documentType, currentScope.get());
+        currentScope.set(scope);
+        return scope;
+    }
+
+    /**
+     * Document type tag for a batch of documents, taken from their source path metadata
+     * @return The common document type, "mixed" if the batch spans several, or "unknown"
+     */
+    public static String documentTypeOf(List<Document> documents) {
+        String documentType = null;
+        for (Document document : documents) {
+            Object sourcePath = document.getMetadata().get("sourcePath");
+            String type = DocumentType.fromUrl(sourcePath != null ? sourcePath.toString() : null).getValue();
+            if (documentType == null) {
+                documentType = type;
+            } else if (!documentType.equals(type)) {
+                return "mixed";
+            }
+        }
+        return documentType != null ? documentType : DocumentType.UNKNOWN.getValue();
+    }
+
+    private Timer timer(String stage, String documentType, String backend) {
+        // The registry returns the existing timer for a known name and tag set
+        return Timer.builder(TIMER_NAME)
+                .description("Time spent in each file processing stage")
+                .tag("stage", stage)
+                .tag("documentType", documentType)
+                .tag("backend", backend)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(5))
+                .register(meterRegistry);
+    }
+
+    /**
+     * Per-thread attribution of embedding time to a document type
+     */
+    public static final class Scope implements AutoCloseable {
+        private final String documentType;
+        private final Scope parent;
+        private long embedNanos;
+
+        private Scope(String documentType, Scope parent) {
+            this.documentType = documentType;
+            this.parent = parent;
+        }
+
+        public long getEmbedNanos() { return embedNanos; }
+
+        @Override
+        public void close() {
+            if (parent != null) {
+                currentScope.set(parent);
+            } else {
+                currentScope.remove();
+            }
+        }
+    }
+}
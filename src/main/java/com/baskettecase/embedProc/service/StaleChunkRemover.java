@@ -0,0 +1,90 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deletes the rows of a source file that its latest stored version no longer produces.
+ * Chunk ids are derived from source path and content, so an edited or shortened file would
+ * otherwise leave its old chunks in the table, where they stay searchable.
+ */
+@Service
+@Profile({"standalone", "cloud"})
+@ConditionalOnProperty(name = "app.embedding.remove-stale.enabled", havingValue = "true", matchIfMissing = true)
+public class StaleChunkRemover {
+
+    private static final Logger logger = LoggerFactory.getLogger(StaleChunkRemover.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String tableName;
+    private final String qualifiedTableName;
+    private final Counter removedCounter;
+    private final AtomicBoolean indexCreated = new AtomicBoolean();
+
+    public StaleChunkRemover(JdbcTemplate jdbcTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schemaName,
+                             @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String tableName) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tableName = tableName;
+        this.qualifiedTableName = schemaName + "." + tableName;
+        this.removedCounter = Counter.builder("embeddings.removed.stale")
+                .description("Stored chunks removed because their source file no longer produces them")
+                .register(meterRegistry);
+        logger.info("StaleChunkRemover initialized - pruning {} after each stored file", qualifiedTableName);
+    }
+
+    /**
+     * Remove a source's stored chunks that are not in its current set. Call only once every
+     * chunk of the source has been stored, or chunks still being written would be removed.
+     * @param sourcePath Source the chunks were read from
+     * @param currentIds Ids of every chunk the source produces now
+     * @return Number of rows removed
+     */
+    public int removeStale(String sourcePath, Collection<String> currentIds) {
+        try {
+            createIndex();
+            UUID[] ids = currentIds.stream().map(UUID::fromString).toArray(UUID[]::new);
+            int removed = jdbcTemplate.update(connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                        "DELETE FROM " + qualifiedTableName + " WHERE metadata->>'sourcePath' = ? AND NOT (id = ANY(?))");
+                statement.setString(1, sourcePath);
+                statement.setArray(2, connection.createArrayOf("uuid", ids));
+                return statement;
+            });
+            if (removed > 0) {
+                removedCounter.increment(removed);
+                logger.info("Removed {} stale chunks of {}", removed, sourcePath);
+            }
+            return removed;
+        } catch (Exception e) {
+            // The new version is fully stored; the old rows are only left in place
+            logger.warn("Failed to remove stale chunks of {}: {}", sourcePath, e.getMessage());
+            return 0;
+        }
+    }
+
+    // Created on first use, since the vector table may not exist yet when this bean starts
+    private void createIndex() {
+        if (indexCreated.compareAndSet(false, true)) {
+            try {
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_source_path_idx ON "
+                        + qualifiedTableName + " ((metadata->>'sourcePath'))");
+            } catch (Exception e) {
+                logger.warn("Failed to create source path index on {}: {}", qualifiedTableName, e.getMessage());
+            }
+        }
+    }
+}
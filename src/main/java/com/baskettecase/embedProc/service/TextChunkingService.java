@@ -1,22 +1,170 @@
 package com.baskettecase.embedProc.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Service
 public class TextChunkingService {
 
+    private static final Logger logger = LoggerFactory.getLogger(TextChunkingService.class);
+
+    // Characters per word of chunk limit a streamed paragraph may reach before it is cut
+    private static final int STREAM_CHARS_PER_WORD = 64;
+
     private final int maxWordsPerChunk;
     private final int minMeaningfulWords;
+    private final int overlapWords;
+    private final MeterRegistry meterRegistry;
+    private final StageMetrics stageMetrics;
+    private final ChunkTokenizer chunkTokenizer;
+    private final TextNormalizer textNormalizer;
+    private int parallelThresholdChars = Integer.MAX_VALUE;
+    private int parallelSegmentChars = 1 << 18;
+    private boolean splitOversizedParagraphs = true;
+    private int contentDefinedMinWords;
+    private int contentDefinedTargetWords;
+    private final Map<DocumentType, ChunkingStrategy> strategies = new EnumMap<>(DocumentType.class);
+    private ChunkingStrategy defaultStrategy = new ParagraphChunkingStrategy();
+
+    /**
+     * Chunker sized by words, without metrics, tokenizer or normalizer
+     */
+    public TextChunkingService(int maxWordsPerChunk, int minMeaningfulWords) {
+        this(maxWordsPerChunk, minMeaningfulWords, 0);
+    }
+
+    public TextChunkingService(int maxWordsPerChunk, int minMeaningfulWords, int overlapWords) {
+        this(maxWordsPerChunk, minMeaningfulWords, overlapWords, null, null, null, null);
+    }
 
+    /**
+     * @param meterRegistry Registry for chunk size and oversized paragraph metrics; null to record none
+     * @param stageMetrics Chunk stage timer; null to record none
+     * @param chunkTokenizer Sizes chunks by BPE tokens instead of words when app.chunking.unit=tokens
+     * @param textNormalizer Normalizes text before chunking when app.normalization.enabled=true
+     */
+    @Autowired
     public TextChunkingService(
             @Value("${app.chunking.max-words-per-chunk:1000}") int maxWordsPerChunk,
-            @Value("${app.chunking.min-meaningful-words:100}") int minMeaningfulWords) {
+            @Value("${app.chunking.min-meaningful-words:100}") int minMeaningfulWords,
+            @Value("${app.chunking.overlap-words:0}") int overlapWords,
+            MeterRegistry meterRegistry,
+            StageMetrics stageMetrics,
+            @Autowired(required = false) ChunkTokenizer chunkTokenizer,
+            @Autowired(required = false) TextNormalizer textNormalizer) {
         this.maxWordsPerChunk = maxWordsPerChunk;
         this.minMeaningfulWords = minMeaningfulWords;
+        this.overlapWords = Math.max(overlapWords, 0);
+        this.meterRegistry = meterRegistry;
+        this.stageMetrics = stageMetrics;
+        this.chunkTokenizer = chunkTokenizer;
+        this.textNormalizer = textNormalizer;
+    }
+
+    /**
+     * Chunk texts of at least thresholdChars characters in parallel, in segments of about segmentChars
+     */
+    @Autowired
+    public void setParallelChunking(@Value("${app.chunking.parallel.threshold-chars:4194304}") int thresholdChars,
+                                    @Value("${app.chunking.parallel.segment-chars:262144}") int segmentChars) {
+        this.parallelThresholdChars = thresholdChars;
+        this.parallelSegmentChars = Math.max(segmentChars, 1);
+    }
+
+    /**
+     * Split paragraphs over the chunk limit at sentence, then word boundaries, so that no chunk
+     * exceeds the limit; when disabled, such a paragraph becomes a chunk of its own
+     */
+    @Autowired
+    public void setSplitOversizedParagraphs(@Value("${app.chunking.split-oversized-paragraphs:true}") boolean splitOversizedParagraphs) {
+        this.splitOversizedParagraphs = splitOversizedParagraphs;
+    }
+
+    /**
+     * Place chunk boundaries where the content says so rather than where the previous chunk filled
+     * up, so an edit to a document only changes the chunks around it. A chunk may end after any
+     * paragraph once it holds minWords meaningful words; whether it does is decided by a rolling
+     * hash of the paragraph's last characters, with a probability of about one in targetWords per
+     * word. The chunk limit still forces a boundary. Zero sizes default to a quarter and a half of
+     * max-words-per-chunk.
+     */
+    @Autowired
+    public void setContentDefinedBoundaries(@Value("${app.chunking.content-defined.enabled:false}") boolean enabled,
+                                            @Value("${app.chunking.content-defined.min-words:0}") int minWords,
+                                            @Value("${app.chunking.content-defined.target-words:0}") int targetWords) {
+        this.contentDefinedMinWords = !enabled ? 0 : minWords > 0 ? minWords : maxWordsPerChunk / 4;
+        this.contentDefinedTargetWords = !enabled ? 0 : targetWords > 0 ? targetWords : Math.max(maxWordsPerChunk / 2, 1);
+    }
+
+    /**
+     * Select a chunking strategy per document type by name, from the strategy beans.
+     * Types without a strategy of their own use the default strategy.
+     */
+    @Autowired(required = false)
+    public void setChunkingStrategies(List<ChunkingStrategy> available,
+                                      @Value("${app.chunking.strategy.default:paragraph}") String defaultName,
+                                      @Value("${app.chunking.strategy.policy:}") String policy,
+                                      @Value("${app.chunking.strategy.reference:}") String reference,
+                                      @Value("${app.chunking.strategy.information:}") String information,
+                                      @Value("${app.chunking.strategy.unknown:}") String unknown) {
+        Map<String, ChunkingStrategy> byName = new HashMap<>();
+        available.forEach(strategy -> byName.put(strategy.getName(), strategy));
+        this.defaultStrategy = strategyNamed(byName, defaultName);
+        Map<DocumentType, String> names = Map.of(DocumentType.POLICY, policy, DocumentType.REFERENCE, reference,
+                DocumentType.INFORMATION, information, DocumentType.UNKNOWN, unknown);
+        strategies.clear();
+        names.forEach((documentType, name) -> {
+            if (name != null && !name.isBlank()) {
+                strategies.put(documentType, strategyNamed(byName, name));
+            }
+        });
+        logger.info("Chunking strategies - default: {}, by type: {}", defaultStrategy.getName(), strategies.entrySet().stream()
+                .map(entry -> entry.getKey().getValue() + "=" + entry.getValue().getName()).toList());
+    }
+
+    private static ChunkingStrategy strategyNamed(Map<String, ChunkingStrategy> byName, String name) {
+        ChunkingStrategy strategy = byName.get(name.trim());
+        if (strategy == null) {
+            throw new IllegalArgumentException("Unknown chunking strategy: " + name + ", expected one of " + byName.keySet());
+        }
+        return strategy;
+    }
+
+    ChunkingStrategy strategyFor(DocumentType documentType) {
+        return documentType == null ? defaultStrategy : strategies.getOrDefault(documentType, defaultStrategy);
+    }
+
+    // A strategy with a token budget of its own overrides the chunker's unit
+    ChunkTokenizer tokenizerFor(ChunkingStrategy strategy) {
+        ChunkTokenizer own = strategy.getTokenizer();
+        return own != null ? own : chunkTokenizer;
     }
 
     /**
@@ -25,59 +173,254 @@ public class TextChunkingService {
      * @return A list of text chunks.
      */
     public List<String> chunkTextEnhanced(String text) {
+        return chunkTextEnhanced(text, DocumentType.UNKNOWN);
+    }
+
+    /**
+     * Chunks text using semantic boundaries, recording the time in the chunk stage timer.
+     * @param text The input text to chunk.
+     * @param documentType Type of the source document, used as the timer tag.
+     * @return A list of text chunks.
+     */
+    public List<String> chunkTextEnhanced(String text, DocumentType documentType) {
+        long start = System.nanoTime();
+        try {
+            if (textNormalizer != null && text != null) {
+                text = textNormalizer.normalize(text, documentType);
+            }
+            return chunkParagraphs(text, documentType);
+        } finally {
+            recordChunkTime(documentType, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Chunks text read from a stream, yielding chunks lazily as paragraphs are read.
+     * Produces the same chunks as {@link #chunkTextEnhanced(String)} while holding only the
+     * chunk being assembled in memory rather than the whole document. A paragraph is buffered up
+     * to {@value #STREAM_CHARS_PER_WORD} characters per word of the chunk limit and overlap; a
+     * longer one, such as text without blank lines, is cut at a sentence or word and its parts
+     * are split like an oversized paragraph, so its chunks may differ from the in-memory result.
+     * The chunk stage time is recorded once the stream has been fully consumed.
+     * @param reader Source of the text; closed when the returned stream is closed.
+     * @param documentType Type of the source document, used as the timer tag.
+     * @return A lazy, ordered stream of text chunks.
+     */
+    public Stream<String> chunkStream(Reader reader, DocumentType documentType) {
+        Reader source = textNormalizer != null ? textNormalizer.normalizing(reader, documentType) : reader;
+        ChunkPacker chunks = new ChunkPacker(this, new ParagraphReader(source, streamParagraphCapChars(documentType)),
+                null, documentType, true);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private int streamParagraphCapChars(DocumentType documentType) {
+        ChunkTokenizer tokenizer = tokenizerFor(strategyFor(documentType));
+        long limit = (tokenizer != null ? tokenizer.getMaxTokensPerChunk() : maxWordsPerChunk) + (long) overlapWords;
+        return (int) Math.min(Integer.MAX_VALUE / 2, Math.max(8192, limit * STREAM_CHARS_PER_WORD));
+    }
+
+    /**
+     * Chunks UTF-8 text read from a stream, see {@link #chunkStream(Reader, DocumentType)}.
+     */
+    public Stream<String> chunkStream(InputStream inputStream, DocumentType documentType) {
+        return chunkStream(new InputStreamReader(inputStream, StandardCharsets.UTF_8), documentType);
+    }
+
+    // Package-private so the startup warm-up can exercise the chunker without recording metrics
+    List<String> chunkParagraphs(String text) {
+        return chunkParagraphs(text, null);
+    }
+
+    private List<String> chunkParagraphs(String text, DocumentType documentType) {
         List<String> chunks = new ArrayList<>();
         if (text == null || text.isEmpty()) {
             return chunks;
         }
 
-        String[] paragraphs = text.split("\\n\\s*\\n");
-        StringBuilder currentChunkBuilder = new StringBuilder();
-        int currentWordCount = 0;
+        if (text.length() >= parallelThresholdChars && tokenizerFor(strategyFor(documentType)) == null) {
+            return chunkInParallel(text, documentType);
+        }
+        new ChunkPacker(this, new ParagraphSplitter(text), null, documentType, false).forEachRemaining(chunks::add);
+        return chunks;
+    }
 
-        for (String paragraph : paragraphs) {
-            if (paragraph.trim().isEmpty()) continue;
+    /**
+     * Split the text into segments at paragraph separators, split and measure the paragraphs of
+     * each segment as fork/join tasks, then pack the measured paragraphs into chunks in order.
+     * Packing is a cheap sequential pass over the counts, so the output matches sequential chunking.
+     * Token mode stays sequential because its budget counts span paragraphs.
+     */
+    private List<String> chunkInParallel(String text, DocumentType documentType) {
+        List<MeasureSegment> segments = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > parallelSegmentChars) {
+            int cut = ParagraphSplitter.nextSeparator(text, start + parallelSegmentChars);
+            if (cut < 0) {
+                break;
+            }
+            segments.add(new MeasureSegment(text, start, cut));
+            start = cut;
+        }
+        segments.add(new MeasureSegment(text, start, text.length()));
+        // Outside a pool, fork() schedules on the common pool
+        segments.forEach(MeasureSegment::fork);
+        segments.forEach(MeasureSegment::join);
+
+        Iterator<CharSequence> paragraphs = segments.stream().flatMap(segment -> segment.paragraphs.stream()).iterator();
+        PrimitiveIterator.OfInt wordCounts = segments.stream()
+                .flatMapToInt(segment -> IntStream.of(segment.wordCounts).limit(segment.paragraphs.size()))
+                .iterator();
+        List<String> chunks = new ArrayList<>();
+        new ChunkPacker(this, paragraphs, wordCounts, documentType, false).forEachRemaining(chunks::add);
+        return chunks;
+    }
 
-            int paragraphWordCount = countMeaningfulWords(paragraph);
+    /**
+     * Counts meaningful words, ignoring excessive whitespace and empty lines, in a single pass.
+     * A word is a run of characters other than regex whitespace; it is meaningful if it contains
+     * an ASCII letter or digit and no Unicode line separator, matching the former
+     * {@code trim().split("\\s+")} and {@code matches(".*[a-zA-Z0-9].*")} test without allocating.
+     */
+    static int countMeaningfulWords(CharSequence text) {
+        if (text == null) return 0;
 
-            if (currentWordCount > 0 && currentWordCount + paragraphWordCount > maxWordsPerChunk) {
-                String chunk = currentChunkBuilder.toString().trim();
-                if (countMeaningfulWords(chunk) >= minMeaningfulWords) {
-                    chunks.add(chunk);
+        int meaningfulWordCount = 0;
+        boolean inWord = false;
+        boolean hasAlphanumeric = false;
+        boolean hasLineSeparator = false;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char ch = text.charAt(i);
+            if (isRegexWhitespace(ch)) {
+                if (inWord && hasAlphanumeric && !hasLineSeparator) {
+                    meaningfulWordCount++;
+                }
+                inWord = false;
+                hasAlphanumeric = false;
+                hasLineSeparator = false;
+            } else {
+                inWord = true;
+                if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')) {
+                    hasAlphanumeric = true;
+                } else if (ch == '\u0085' || ch == '\u2028' || ch == '\u2029') {
+                    // '.' does not match these line terminators, so the regex rejected such words
+                    hasLineSeparator = true;
                 }
-                currentChunkBuilder.setLength(0);
-                currentWordCount = 0;
             }
+        }
+        if (inWord && hasAlphanumeric && !hasLineSeparator) {
+            meaningfulWordCount++;
+        }
+        return meaningfulWordCount;
+    }
 
-            if (currentChunkBuilder.length() > 0) {
-                currentChunkBuilder.append("\n\n");
-            }
-            currentChunkBuilder.append(paragraph.trim());
-            currentWordCount += paragraphWordCount;
+    /**
+     * The characters matched by \s without UNICODE_CHARACTER_CLASS
+     */
+    static boolean isRegexWhitespace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+    }
+
+    /**
+     * Fork/join task splitting one segment of the text into trimmed, non-empty paragraphs
+     * and counting their meaningful words
+     */
+    private static final class MeasureSegment extends RecursiveAction {
+        private final String text;
+        private final int start;
+        private final int end;
+        private final List<CharSequence> paragraphs = new ArrayList<>();
+        private int[] wordCounts = new int[16];
+
+        private MeasureSegment(String text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
         }
 
-        if (currentChunkBuilder.length() > 0) {
-            String chunk = currentChunkBuilder.toString().trim();
-            if (countMeaningfulWords(chunk) >= minMeaningfulWords) {
-                chunks.add(chunk);
+        @Override
+        protected void compute() {
+            ParagraphSplitter splitter = new ParagraphSplitter(text, start, end);
+            while (splitter.hasNext()) {
+                String paragraph = splitter.next().toString().trim();
+                if (paragraph.isEmpty()) continue;
+                if (paragraphs.size() == wordCounts.length) {
+                    wordCounts = Arrays.copyOf(wordCounts, wordCounts.length * 2);
+                }
+                wordCounts[paragraphs.size()] = countMeaningfulWords(paragraph);
+                paragraphs.add(paragraph);
             }
         }
+    }
 
-        return chunks;
+    int getMaxWordsPerChunk() {
+        return maxWordsPerChunk;
+    }
+
+    int getMinMeaningfulWords() {
+        return minMeaningfulWords;
+    }
+
+    int getOverlapWords() {
+        return overlapWords;
+    }
+
+    boolean isSplitOversizedParagraphs() {
+        return splitOversizedParagraphs;
+    }
+
+    int getContentDefinedMinWords() {
+        return contentDefinedMinWords;
     }
 
     /**
-     * Counts meaningful words, ignoring excessive whitespace and empty lines.
+     * @return Mean words between content-defined boundaries, or 0 when they are disabled
      */
-    private int countMeaningfulWords(String text) {
-        if (text == null || text.trim().isEmpty()) return 0;
+    int getContentDefinedTargetWords() {
+        return contentDefinedTargetWords;
+    }
 
-        String[] words = text.trim().split("\\s+");
-        int meaningfulWordCount = 0;
-        for (String word : words) {
-            if (word != null && !word.trim().isEmpty() && word.matches(".*[a-zA-Z0-9].*")) {
-                meaningfulWordCount++;
-            }
+    void recordChunkTime(DocumentType documentType, long nanos) {
+        if (stageMetrics != null) {
+            stageMetrics.record(StageMetrics.CHUNK, documentType.getValue(), "local", nanos);
         }
-        return meaningfulWordCount;
     }
+
+    void recordOversizedParagraph(DocumentType documentType, ChunkingStrategy strategy, String split) {
+        if (meterRegistry == null) {
+            return;
+        }
+        Counter.builder("embeddings.chunking.oversized.paragraphs")
+                .description("Paragraphs over the chunk limit split at sentence or word boundaries")
+                .tag("documentType", documentType.getValue())
+                .tag("strategy", strategy.getName())
+                .tag("split", split)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    void recordChunkWords(DocumentType documentType, ChunkingStrategy strategy, int contentWords, int overlapWords) {
+        if (meterRegistry == null) {
+            return;
+        }
+        DistributionSummary.builder("embeddings.chunking.words")
+                .description("Meaningful words per chunk, excluding overlap")
+                .tag("documentType", documentType.getValue())
+                .tag("strategy", strategy.getName())
+                .register(meterRegistry)
+                .record(contentWords);
+        DistributionSummary.builder("embeddings.chunking.overlap.words")
+                .description("Words repeated from the previous chunk")
+                .tag("documentType", documentType.getValue())
+                .tag("strategy", strategy.getName())
+                .register(meterRegistry)
+                .record(overlapWords);
+    }
+
 }
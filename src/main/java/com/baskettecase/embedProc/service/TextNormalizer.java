@@ -0,0 +1,371 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single-pass clean-up of downloaded text before it is chunked, removing what costs embedding
+ * tokens without carrying meaning. Works line by line:
+ * - collapses runs of spaces and tabs, trims lines and collapses runs of blank lines to one
+ * - joins a word hyphenated across a line break onto one line, keeping the hyphen ("well-\nknown"
+ *   becomes "well-known"); a line-end hyphen cannot be told apart from a compound's, so none is dropped
+ * - drops control characters, soft hyphens and replacement characters left by OCR
+ * - drops short lines, such as page headers and footers, once they have appeared on
+ *   repeatedLineThreshold pages; digits are ignored when comparing, so page numbers still match
+ * Pages end at a form feed or after pageLines lines. Being single-pass, the first occurrences of a
+ * repeated line are kept. Characters removed and tokens saved are reported per document type.
+ */
+@Service
+@ConditionalOnProperty(name = "app.normalization.enabled", havingValue = "true")
+public class TextNormalizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(TextNormalizer.class);
+
+    // Bounds the memory spent on counting lines of one document
+    private static final int MAX_TRACKED_LINES = 10_000;
+    // Longest partial line a normalizing reader buffers before breaking it at a blank
+    private static final int MAX_STREAMED_LINE = 16_384;
+
+    private final MeterRegistry meterRegistry;
+    private final boolean collapseWhitespace;
+    private final boolean dehyphenate;
+    private final int repeatedLineThreshold;
+    private final int repeatedLineMinLength;
+    private final int repeatedLineMaxLength;
+    private final int pageLines;
+
+    public TextNormalizer(MeterRegistry meterRegistry,
+                          @Value("${app.normalization.collapse-whitespace:true}") boolean collapseWhitespace,
+                          @Value("${app.normalization.dehyphenate:true}") boolean dehyphenate,
+                          @Value("${app.normalization.repeated-lines.threshold:3}") int repeatedLineThreshold,
+                          @Value("${app.normalization.repeated-lines.min-length:8}") int repeatedLineMinLength,
+                          @Value("${app.normalization.repeated-lines.max-length:120}") int repeatedLineMaxLength,
+                          @Value("${app.normalization.page-lines:60}") int pageLines) {
+        this.meterRegistry = meterRegistry;
+        this.collapseWhitespace = collapseWhitespace;
+        this.dehyphenate = dehyphenate;
+        this.repeatedLineThreshold = repeatedLineThreshold;
+        this.repeatedLineMinLength = repeatedLineMinLength;
+        this.repeatedLineMaxLength = repeatedLineMaxLength;
+        this.pageLines = Math.max(pageLines, 1);
+        logger.info("TextNormalizer initialized - collapse whitespace: {}, dehyphenate: {}, repeated lines dropped after {} pages",
+                collapseWhitespace, dehyphenate, repeatedLineThreshold > 0 ? repeatedLineThreshold : "never");
+    }
+
+    /**
+     * Normalize text held in memory
+     */
+    public String normalize(CharSequence text, DocumentType documentType) {
+        StringBuilder out = new StringBuilder(text.length());
+        Pass pass = new Pass(new BuilderSink(out));
+        pass.lines(text, 0, text.length());
+        pass.finish(documentType);
+        return out.toString();
+    }
+
+    /**
+     * Normalize text as it is read. Metrics are recorded when the end of the input is reached.
+     */
+    public Reader normalizing(Reader reader, DocumentType documentType) {
+        return new NormalizingReader(reader, documentType);
+    }
+
+    /**
+     * Append-only output of a pass
+     */
+    private interface Sink {
+        void append(char ch);
+        int length();
+        // Characters output in total, including any the consumer has already taken
+        long written();
+    }
+
+    private static final class BuilderSink implements Sink {
+        private final StringBuilder builder;
+        private long written;
+
+        private BuilderSink(StringBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override public void append(char ch) { builder.append(ch); written++; }
+        @Override public int length() { return builder.length(); }
+        @Override public long written() { return written; }
+    }
+
+    /**
+     * State of normalizing one document
+     */
+    private final class Pass {
+        private final Sink sink;
+        private final Map<String, int[]> lineCounts = new HashMap<>();
+        private final StringBuilder key = new StringBuilder();
+        private long charsIn;
+        private long linesRemoved;
+        private long dehyphenated;
+        private int page;
+        private int linesInPage;
+        private int blankLines;
+        private boolean wroteContent;
+        private boolean pendingHyphen;
+        private boolean pendingCarriageReturn;
+
+        private Pass(Sink sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * Process complete lines of text; a line terminator is \n, \r, \r\n or a form feed,
+         * which also ends the page
+         */
+        void lines(CharSequence text, int start, int end) {
+            int lineStart = start;
+            for (int i = start; i < end; i++) {
+                char ch = text.charAt(i);
+                if (ch == '\n' && pendingCarriageReturn) {
+                    pendingCarriageReturn = false;
+                    lineStart = i + 1;
+                    continue;
+                }
+                pendingCarriageReturn = ch == '\r';
+                if (ch == '\n' || ch == '\r' || ch == '\f') {
+                    line(text, lineStart, i);
+                    if (ch == '\f') {
+                        newPage();
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart < end) {
+                line(text, lineStart, end);
+            }
+            charsIn += end - start;
+        }
+
+        void line(CharSequence text, int start, int end) {
+            if (++linesInPage > pageLines) {
+                newPage();
+                linesInPage = 1;
+            }
+            int from = start;
+            int to = end;
+            while (from < to && isBlank(text.charAt(from))) from++;
+            while (to > from && isBlank(text.charAt(to - 1))) to--;
+            if (from == to) {
+                blankLines++;
+                return;
+            }
+            if (isRepeated(text, from, to)) {
+                linesRemoved++;
+                return;
+            }
+
+            if (!collapseWhitespace) {
+                from = start;
+                to = end;
+            }
+            if (wroteContent) {
+                if (pendingHyphen && blankLines == 0 && Character.isLowerCase(text.charAt(from))) {
+                    // Only the line break goes; the hyphen stays
+                    dehyphenated++;
+                } else {
+                    int lineBreaks = blankLines == 0 ? 1 : collapseWhitespace ? 2 : blankLines + 1;
+                    for (int k = 0; k < lineBreaks; k++) {
+                        sink.append('\n');
+                    }
+                }
+            }
+            blankLines = 0;
+            wroteContent = true;
+
+            boolean space = false;
+            char last = 0;
+            char beforeLast = 0;
+            for (int i = from; i < to; i++) {
+                char ch = text.charAt(i);
+                if (collapseWhitespace && isBlank(ch)) {
+                    space = true;
+                    continue;
+                }
+                if (isNoise(ch)) {
+                    continue;
+                }
+                if (space) {
+                    sink.append(' ');
+                    space = false;
+                    beforeLast = last;
+                    last = ' ';
+                }
+                sink.append(ch);
+                beforeLast = last;
+                last = ch;
+            }
+            pendingHyphen = dehyphenate && last == '-' && Character.isLetter(beforeLast);
+        }
+
+        private boolean isRepeated(CharSequence text, int from, int to) {
+            if (repeatedLineThreshold <= 0 || to - from < repeatedLineMinLength || to - from > repeatedLineMaxLength) {
+                return false;
+            }
+            key.setLength(0);
+            for (int i = from; i < to; i++) {
+                char ch = text.charAt(i);
+                if (isBlank(ch)) {
+                    if (key.length() > 0 && key.charAt(key.length() - 1) != ' ') {
+                        key.append(' ');
+                    }
+                } else {
+                    key.append(Character.isDigit(ch) ? '#' : ch);
+                }
+            }
+            int[] seen = lineCounts.get(key.toString());
+            if (seen == null) {
+                if (lineCounts.size() < MAX_TRACKED_LINES) {
+                    lineCounts.put(key.toString(), new int[]{1, page});
+                }
+                return false;
+            }
+            // Count each line once per page, so repetition within a page is kept
+            if (seen[1] != page) {
+                seen[0]++;
+                seen[1] = page;
+            }
+            return seen[0] >= repeatedLineThreshold;
+        }
+
+        private void newPage() {
+            page++;
+            linesInPage = 0;
+        }
+
+        void finish(DocumentType documentType) {
+            long charsOut = sink.written();
+            long removed = charsIn - charsOut;
+            // The same estimate as TokenEstimator, kept in longs for documents over 2 GB of text
+            long tokensSaved = Math.max(0, ((charsIn + 3) / 4) - ((charsOut + 3) / 4));
+            String type = documentType != null ? documentType.getValue() : DocumentType.UNKNOWN.getValue();
+            counter("embeddings.normalization.chars.removed", "Characters removed before chunking", type).increment(removed);
+            counter("embeddings.normalization.tokens.saved", "Estimated embedding tokens saved by normalization", type).increment(tokensSaved);
+            counter("embeddings.normalization.lines.removed", "Repeated header and footer lines removed", type).increment(linesRemoved);
+            logger.debug("Normalized {} document: {} of {} chars removed (~{} tokens), {} repeated lines, {} hyphenations joined",
+                    type, removed, charsIn, tokensSaved, linesRemoved, dehyphenated);
+        }
+    }
+
+    private Counter counter(String name, String description, String documentType) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("documentType", documentType)
+                .register(meterRegistry);
+    }
+
+    private static boolean isBlank(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\u000B' || ch == '\u00A0';
+    }
+
+    private static boolean isNoise(char ch) {
+        return (ch < ' ' && ch != '\t') || ch == '\u007F' || ch == '\u00AD' || ch == '\uFFFD';
+    }
+
+    /**
+     * Reads normalized text, processing the underlying reader a line at a time. A line longer
+     * than {@value #MAX_STREAMED_LINE} characters is broken at its last blank before the limit,
+     * so text without line terminators is not buffered in full.
+     */
+    private final class NormalizingReader extends Reader {
+        private final Reader reader;
+        private final DocumentType documentType;
+        private final char[] input = new char[8192];
+        private final StringBuilder line = new StringBuilder();
+        private final StringBuilder out = new StringBuilder();
+        private final Pass pass = new Pass(new BuilderSink(out));
+        private int outPosition;
+        private boolean endOfInput;
+
+        private NormalizingReader(Reader reader, DocumentType documentType) {
+            this.reader = reader;
+            this.documentType = documentType;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            while (available() == 0 && !endOfInput) {
+                fill();
+            }
+            int count = Math.min(available(), length);
+            if (count == 0) {
+                return length == 0 ? 0 : -1;
+            }
+            out.getChars(outPosition, outPosition + count, buffer, offset);
+            outPosition += count;
+            if (outPosition > 8192 && outPosition * 2 > out.length()) {
+                out.delete(0, outPosition);
+                outPosition = 0;
+            }
+            return count;
+        }
+
+        private int available() {
+            return out.length() - outPosition;
+        }
+
+        private void fill() throws IOException {
+            int read = reader.read(input, 0, input.length);
+            if (read < 0) {
+                pass.lines(line, 0, line.length());
+                line.setLength(0);
+                pass.finish(documentType);
+                endOfInput = true;
+                return;
+            }
+            // Hand over complete lines only, keeping a trailing partial line
+            int lastTerminator = -1;
+            for (int i = read - 1; i >= 0; i--) {
+                char ch = input[i];
+                if (ch == '\n' || ch == '\r' || ch == '\f') {
+                    lastTerminator = i;
+                    break;
+                }
+            }
+            if (lastTerminator < 0) {
+                line.append(input, 0, read);
+                if (line.length() >= MAX_STREAMED_LINE) {
+                    breakLine();
+                }
+                return;
+            }
+            line.append(input, 0, lastTerminator + 1);
+            pass.lines(line, 0, line.length());
+            line.setLength(0);
+            line.append(input, lastTerminator + 1, read - lastTerminator - 1);
+        }
+
+        // Hand over the partial line up to its last blank, or all of it if it is a single word
+        private void breakLine() {
+            int end = line.length();
+            for (int i = line.length() - 1; i > 0; i--) {
+                if (isBlank(line.charAt(i))) {
+                    end = i;
+                    break;
+                }
+            }
+            pass.lines(line, 0, end);
+            line.delete(0, end);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
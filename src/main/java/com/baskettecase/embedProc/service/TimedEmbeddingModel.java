@@ -0,0 +1,43 @@
+package com.baskettecase.embedProc.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * EmbeddingModel decorator that records each request in the embed stage timer of
+ * {@link StageMetrics}, tagged with the provider as backend.
+ */
+public class TimedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final StageMetrics stageMetrics;
+    private final String backend;
+
+    public TimedEmbeddingModel(EmbeddingModel delegate, StageMetrics stageMetrics, String backend) {
+        this.delegate = delegate;
+        this.stageMetrics = stageMetrics;
+        this.backend = backend;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        long start = System.nanoTime();
+        try {
+            return delegate.call(request);
+        } finally {
+            stageMetrics.recordEmbedding(backend, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
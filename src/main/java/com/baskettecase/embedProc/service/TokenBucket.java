@@ -0,0 +1,68 @@
+package com.baskettecase.embedProc.service;
+
+/**
+ * Classic token bucket: holds up to {@code capacity} permits and refills continuously
+ * at a fixed rate. Time is passed in explicitly so callers control the clock.
+ * Not thread-safe; callers synchronize when buckets must be updated together.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double available;
+    private long lastRefillNanos;
+
+    /**
+     * Create a full bucket
+     * @param capacity Maximum permits held (burst size)
+     * @param refillPerSecond Permits added per second
+     * @param nowNanos Current time from {@link System#nanoTime()}
+     */
+    public TokenBucket(double capacity, double refillPerSecond, long nowNanos) {
+        if (capacity <= 0 || refillPerSecond <= 0) {
+            throw new IllegalArgumentException("Token bucket capacity and refill rate must be positive");
+        }
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1_000_000_000d;
+        this.available = capacity;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Time until the requested permits are available.
+     * Requests larger than the capacity are treated as a full bucket so they cannot starve.
+     * @return 0 if the permits can be taken now, otherwise the wait in nanoseconds
+     */
+    public long nanosUntilAvailable(double permits, long nowNanos) {
+        refill(nowNanos);
+        double needed = Math.min(permits, capacity);
+        if (available >= needed) {
+            return 0;
+        }
+        return (long) Math.ceil((needed - available) / refillPerNano);
+    }
+
+    /**
+     * Take permits; call only after {@link #nanosUntilAvailable} returned 0
+     */
+    public void consume(double permits) {
+        available -= Math.min(permits, capacity);
+    }
+
+    public double getAvailable(long nowNanos) {
+        refill(nowNanos);
+        return available;
+    }
+
+    public double getCapacity() {
+        return capacity;
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            available = Math.min(capacity, available + elapsed * refillPerNano);
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
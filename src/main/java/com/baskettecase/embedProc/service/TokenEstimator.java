@@ -0,0 +1,26 @@
+package com.baskettecase.embedProc.service;
+
+/**
+ * Cheap token count estimate for embedding requests.
+ * English text averages roughly four characters per token for the OpenAI and
+ * nomic encodings, which is close enough for sizing batches against provider limits.
+ */
+public final class TokenEstimator {
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * Estimate the number of tokens in the given text
+     * @param text The text to estimate, may be null
+     * @return Estimated token count (never negative)
+     */
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
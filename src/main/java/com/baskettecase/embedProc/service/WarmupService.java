@@ -0,0 +1,160 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup warm-up run after ApplicationReadyEvent and before the input binding may start.
+ * Sends one small embedding request (TLS handshake, Ollama model load), opens pooled connections
+ * and touches the vector table, and runs the chunker over a synthetic document so the first real
+ * file is not paying for cold caches. Each step is best effort; a failure is logged and skipped.
+ */
+@Service
+@Profile({"standalone", "cloud"})
+@ConditionalOnProperty(name = "app.warmup.enabled", havingValue = "true")
+public class WarmupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WarmupService.class);
+
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final TextChunkingService textChunkingService;
+    private final MeterRegistry meterRegistry;
+    private final String qualifiedTableName;
+    private final int connections;
+    private final int chunkerIterations;
+    private final Duration timeout;
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    public WarmupService(EmbeddingModel embeddingModel,
+                         JdbcTemplate jdbcTemplate,
+                         TextChunkingService textChunkingService,
+                         MeterRegistry meterRegistry,
+                         @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schemaName,
+                         @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String tableName,
+                         @Value("${app.warmup.connections:4}") int connections,
+                         @Value("${app.warmup.chunker-iterations:200}") int chunkerIterations,
+                         @Value("${app.warmup.timeout:2m}") Duration timeout) {
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.textChunkingService = textChunkingService;
+        this.meterRegistry = meterRegistry;
+        this.qualifiedTableName = schemaName + "." + tableName;
+        this.connections = connections;
+        this.chunkerIterations = chunkerIterations;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Run the warm-up on the startup thread, so readiness is only reported once it is done
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        logger.info("Warming up embedding model, connection pool and chunker");
+        long start = System.nanoTime();
+        try {
+            step("embedding", this::warmEmbedding);
+            step("vector-store", this::warmVectorStore);
+            step("chunker", this::warmChunker);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            timer("total").record(elapsed, TimeUnit.NANOSECONDS);
+            completed.countDown();
+            logger.info("Warm-up completed in {} ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+    }
+
+    /**
+     * Block until the warm-up has finished or the configured timeout has passed
+     * @return true if the warm-up finished
+     */
+    public boolean awaitCompletion() throws InterruptedException {
+        return completed.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void warmEmbedding() {
+        float[] embedding = embeddingModel.embed("embedProc warm-up request");
+        logger.debug("Warm-up embedding returned {} dimensions", embedding.length);
+    }
+
+    /**
+     * Open several pooled connections at once and touch the vector table on each, so TLS,
+     * authentication and the table's pages are already warm when the first batch is written
+     */
+    private void warmVectorStore() throws Exception {
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        List<Connection> opened = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                Connection connection = dataSource.getConnection();
+                opened.add(connection);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SELECT id FROM " + qualifiedTableName + " LIMIT 1");
+                }
+            }
+        } finally {
+            for (Connection connection : opened) {
+                connection.close();
+            }
+        }
+        logger.debug("Warm-up opened {} connections to {}", opened.size(), qualifiedTableName);
+    }
+
+    private void warmChunker() {
+        StringBuilder document = new StringBuilder();
+        for (int paragraph = 0; paragraph < 50; paragraph++) {
+            for (int word = 0; word < 40; word++) {
+                document.append("word").append(word).append(' ');
+            }
+            document.append("\n\n");
+        }
+        String text = document.toString();
+        int chunks = 0;
+        for (int i = 0; i < chunkerIterations; i++) {
+            chunks += textChunkingService.chunkParagraphs(text).size();
+        }
+        logger.debug("Warm-up chunked {} synthetic documents into {} chunks", chunkerIterations, chunks);
+    }
+
+    private void step(String name, WarmupStep step) {
+        long start = System.nanoTime();
+        try {
+            step.run();
+        } catch (Exception e) {
+            logger.warn("Warm-up step {} failed, continuing: {}", name, e.getMessage());
+        } finally {
+            timer(name).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(String step) {
+        return Timer.builder("embeddings.warmup.duration")
+                .description("Time spent warming up before the input binding starts")
+                .tag("step", step)
+                .register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    private interface WarmupStep {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,105 @@
+package com.baskettecase.embedProc.processor;
+
+import com.baskettecase.embedProc.service.FileDownloaderService;
+import com.baskettecase.embedProc.service.TextChunkingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for FileProcessingPipeline
+ */
+public class FileProcessingPipelineTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileProcessingPipeline pipeline;
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.destroy();
+        }
+    }
+
+    @ParameterizedTest(name = "virtualThreads={0}")
+    @ValueSource(booleans = {false, true})
+    void testAllChunksAreDeliveredInBatchesBeforeCompletion(boolean virtualThreads) throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            text.append("Paragraph ").append(i).append(" with some words in it.\n\n");
+        }
+        File file = Files.writeString(tempDir.resolve("input.txt"), text.toString()).toFile();
+
+        FileDownloaderService downloader = mock(FileDownloaderService.class);
+        when(downloader.downloadFileToTemp("http://host/input.txt")).thenReturn(file);
+        // Every paragraph becomes its own chunk
+        TextChunkingService chunker = new TextChunkingService(8, 1);
+        pipeline = new FileProcessingPipeline(downloader, chunker, null, 1, 1, 2, 2, 10, virtualThreads);
+
+        List<List<String>> batches = new CopyOnWriteArrayList<>();
+        List<Integer> offsets = new CopyOnWriteArrayList<>();
+        int totalChunks = pipeline.submit("http://host/input.txt", (batch, firstChunkIndex) -> {
+            batches.add(batch);
+            offsets.add(firstChunkIndex);
+            return 0;
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(25, totalChunks);
+        assertEquals(3, batches.size());
+        assertEquals(25, batches.stream().mapToInt(List::size).sum());
+        assertEquals(List.of(0, 10, 20), offsets.stream().sorted().toList());
+        assertFalse(file.exists(), "temp file should be cleaned up after chunking");
+    }
+
+    @Test
+    void testDownloadFailureCompletesExceptionally() {
+        FileDownloaderService downloader = mock(FileDownloaderService.class);
+        when(downloader.downloadFileToTemp(anyString())).thenReturn(null);
+        pipeline = new FileProcessingPipeline(downloader, new TextChunkingService(5, 1), null, 1, 1, 1, 1, 10, false);
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+            () -> pipeline.submit("http://host/missing.txt", (batch, firstChunkIndex) -> fail("no batches expected")).get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause().getMessage().contains("missing.txt"));
+    }
+
+    @Test
+    void testBatchWriterFailureStoresRemainingBatchesAndFailsFile() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            text.append("Paragraph ").append(i).append(" with some words in it.\n\n");
+        }
+        File file = Files.writeString(tempDir.resolve("input.txt"), text.toString()).toFile();
+
+        FileDownloaderService downloader = mock(FileDownloaderService.class);
+        when(downloader.downloadFileToTemp("http://host/input.txt")).thenReturn(file);
+        pipeline = new FileProcessingPipeline(downloader, new TextChunkingService(8, 1), null, 1, 1, 1, 2, 10, false);
+
+        List<Integer> written = new CopyOnWriteArrayList<>();
+        ExecutionException error = assertThrows(ExecutionException.class,
+            () -> pipeline.submit("http://host/input.txt", (batch, firstChunkIndex) -> {
+                if (firstChunkIndex == 0) {
+                    throw new IllegalStateException("vector store unavailable");
+                }
+                written.add(firstChunkIndex);
+                return firstChunkIndex == 10 ? 2 : 0;
+            }).get(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(10, 20), written.stream().sorted().toList());
+        assertEquals("12 of 25 chunks could not be stored for http://host/input.txt", error.getCause().getMessage());
+    }
+}
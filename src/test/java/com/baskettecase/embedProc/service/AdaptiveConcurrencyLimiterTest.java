@@ -0,0 +1,95 @@
+package com.baskettecase.embedProc.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AdaptiveConcurrencyLimiter
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void testLimitGrowsWhileLatencyIsStable() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 4, 0.5, 2.0);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.release(LATENCY, null);
+        }
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testLimitHoldsWhenLatencySpikes() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 8, 0.5, 2.0);
+        limiter.acquire();
+        limiter.release(LATENCY, null);
+        int limitAfterBaseline = limiter.getLimit();
+
+        limiter.acquire();
+        limiter.release(LATENCY * 10, null);
+
+        assertEquals(limitAfterBaseline, limiter.getLimit());
+    }
+
+    @Test
+    void testThrottlingBacksOffMultiplicatively() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 8, 0.5, 2.0);
+
+        limiter.acquire();
+        limiter.release(LATENCY, new RuntimeException("wrapped", new NonTransientAiException("429 - {\"error\": \"rate_limit_exceeded\"}")));
+        assertEquals(4, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(LATENCY, new RuntimeException("wrapped", new SocketTimeoutException("Read timed out")));
+        assertEquals(2, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(LATENCY, new IllegalArgumentException("bad input"));
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void testThrottlingIsDetectedByStatusNotMessageText() {
+        assertTrue(AdaptiveConcurrencyLimiter.isThrottleOrTimeout(HttpClientErrorException.create(
+            HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", null, null, null)));
+        assertFalse(AdaptiveConcurrencyLimiter.isThrottleOrTimeout(HttpClientErrorException.create(
+            HttpStatus.BAD_REQUEST, "Chunk 429 exceeds the input limit", null, null, null)));
+        assertFalse(AdaptiveConcurrencyLimiter.isThrottleOrTimeout(new NonTransientAiException("400 - chunk 429 is too long")));
+        assertFalse(AdaptiveConcurrencyLimiter.isThrottleOrTimeout(new RuntimeException("Failed to store 429 bytes on port 54290")));
+    }
+
+    @Test
+    void testAcquireBlocksAtLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, 2.0);
+        limiter.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release(LATENCY, null);
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        waiter.join();
+    }
+}
@@ -0,0 +1,131 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for CachingEmbeddingModel and the in-memory tier of EmbeddingCache
+ */
+public class CachingEmbeddingModelTest {
+
+    private EmbeddingModel delegate;
+    private SimpleMeterRegistry meterRegistry;
+    private CachingEmbeddingModel model;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(EmbeddingModel.class);
+        when(delegate.call(any(EmbeddingRequest.class))).thenAnswer(invocation -> {
+            EmbeddingRequest request = invocation.getArgument(0);
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(new float[]{request.getInstructions().get(i).length()}, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        });
+        meterRegistry = new SimpleMeterRegistry();
+        EmbeddingCache cache = new EmbeddingCache(meterRegistry, null, 2, false, "embedding_cache", "test-model", 3);
+        model = new CachingEmbeddingModel(delegate, cache);
+    }
+
+    @Test
+    void testRepeatedTextIsServedFromCache() {
+        model.call(new EmbeddingRequest(List.of("alpha"), null));
+        EmbeddingResponse response = model.call(new EmbeddingRequest(List.of("alpha"), null));
+
+        assertEquals(5f, response.getResults().get(0).getOutput()[0]);
+        verify(delegate, times(1)).call(any(EmbeddingRequest.class));
+        assertEquals(1.0, meterRegistry.get("embeddings.cache.hits").tag("tier", "memory").counter().count());
+        assertEquals(1.0, meterRegistry.get("embeddings.cache.misses").counter().count());
+    }
+
+    @Test
+    void testOnlyMissesAreSentAndOrderIsPreserved() {
+        model.call(new EmbeddingRequest(List.of("bb"), null));
+
+        EmbeddingResponse response = model.call(new EmbeddingRequest(List.of("a", "bb", "ccc", "a"), null));
+
+        ArgumentCaptor<EmbeddingRequest> captor = ArgumentCaptor.forClass(EmbeddingRequest.class);
+        verify(delegate, times(2)).call(captor.capture());
+        assertEquals(List.of("a", "ccc"), captor.getAllValues().get(1).getInstructions());
+
+        List<Embedding> results = response.getResults();
+        assertEquals(4, results.size());
+        assertEquals(1f, results.get(0).getOutput()[0]);
+        assertEquals(2f, results.get(1).getOutput()[0]);
+        assertEquals(3f, results.get(2).getOutput()[0]);
+        assertEquals(1f, results.get(3).getOutput()[0]);
+    }
+
+    @Test
+    void testMemoryTierIsBounded() {
+        model.call(new EmbeddingRequest(List.of("a", "bb", "ccc"), null));
+        model.call(new EmbeddingRequest(List.of("a"), null));
+
+        // max-entries is 2, so the least recently used entry ("a") was evicted
+        verify(delegate, times(2)).call(any(EmbeddingRequest.class));
+    }
+
+    @Test
+    void testRequestOptionsArePartOfTheKey() {
+        model.call(new EmbeddingRequest(List.of("alpha"), null));
+        model.call(new EmbeddingRequest(List.of("alpha"), EmbeddingOptionsBuilder.builder().build()));
+        model.call(new EmbeddingRequest(List.of("alpha"), EmbeddingOptionsBuilder.builder().withDimensions(2).build()));
+
+        // Empty options share the configured key, other dimensions do not
+        verify(delegate, times(2)).call(any(EmbeddingRequest.class));
+    }
+
+    @Test
+    void testResponsesFromHedgeSecondaryAreNotCached() {
+        EmbeddingModel primary = mock(EmbeddingModel.class);
+        when(primary.dimensions()).thenReturn(1);
+        when(primary.call(any(EmbeddingRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(2_000);
+            return delegate.call(invocation.getArgument(0));
+        });
+        EmbeddingModel secondary = mock(EmbeddingModel.class);
+        when(secondary.dimensions()).thenReturn(1);
+        when(secondary.call(any(EmbeddingRequest.class)))
+                .thenReturn(new EmbeddingResponse(List.of(new Embedding(new float[]{9f}, 0))));
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            HedgedEmbeddingModel hedged = new HedgedEmbeddingModel(primary, secondary, executor, meterRegistry, 0.95, 20, 10, 50);
+            CachingEmbeddingModel caching = new CachingEmbeddingModel(hedged,
+                    new EmbeddingCache(meterRegistry, null, 10, false, "embedding_cache", "test-model", 1));
+
+            assertEquals(9f, caching.call(new EmbeddingRequest(List.of("alpha"), null)).getResults().get(0).getOutput()[0]);
+            caching.call(new EmbeddingRequest(List.of("alpha"), null));
+
+            verify(secondary, times(2)).call(any(EmbeddingRequest.class));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testKeyDependsOnModelAndDimensions() {
+        EmbeddingCache other = new EmbeddingCache(new SimpleMeterRegistry(), null, 10, false, "embedding_cache", "test-model", 4);
+        EmbeddingCache same = new EmbeddingCache(new SimpleMeterRegistry(), null, 10, false, "embedding_cache", "test-model", 3);
+        EmbeddingCache reference = new EmbeddingCache(new SimpleMeterRegistry(), null, 10, false, "embedding_cache", "test-model", 3);
+
+        assertEquals(reference.keyFor("text"), same.keyFor("text"));
+        assertNotEquals(reference.keyFor("text"), other.keyFor("text"));
+    }
+}
@@ -0,0 +1,100 @@
+package com.baskettecase.embedProc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ChunkSpool
+ */
+public class ChunkSpoolTest {
+
+    @TempDir
+    Path spoolDir;
+
+    private ChunkSpool newSpool(DataSize maxSize) throws Exception {
+        return new ChunkSpool(new ObjectMapper(), spoolDir.toString(), DataSize.ofBytes(32), maxSize, Duration.ofDays(7));
+    }
+
+    @Test
+    void testResumeAfterRestartReturnsChunksAndWatermark() throws Exception {
+        List<String> chunks = List.of("first chunk of text", "second chunk", "third chunk with ünïcödé", "fourth");
+        ChunkSpool spool = newSpool(DataSize.ofMegabytes(1));
+        ChunkSpool.SpooledFile spooled = spool.create("http://host/file.txt", "v1", chunks);
+        spooled.commit(2);
+
+        // A new instance over the same directory simulates a restart
+        ChunkSpool restarted = newSpool(DataSize.ofMegabytes(1));
+        ChunkSpool.SpooledFile resumed = restarted.resume("http://host/file.txt", "v1");
+
+        assertNotNull(resumed);
+        assertEquals(chunks, resumed.getChunks());
+        assertEquals(2, resumed.getCommittedChunks());
+        assertTrue(restarted.getUsedBytes() > 0);
+        assertNull(restarted.resume("http://host/other.txt", "v1"));
+    }
+
+    @Test
+    void testChunksAreSplitAcrossSegments() throws Exception {
+        ChunkSpool spool = newSpool(DataSize.ofMegabytes(1));
+        spool.create("http://host/file.txt", "v1", List.of("a".repeat(20), "b".repeat(20), "c".repeat(10)));
+
+        try (Stream<Path> files = Files.walk(spoolDir)) {
+            long segments = files.filter(path -> path.getFileName().toString().startsWith("segment-")).count();
+            assertEquals(2, segments);
+        }
+    }
+
+    @Test
+    void testCompleteRemovesSpool() throws Exception {
+        ChunkSpool spool = newSpool(DataSize.ofMegabytes(1));
+        spool.create("http://host/file.txt", "v1", List.of("chunk")).complete();
+
+        assertNull(spool.resume("http://host/file.txt", "v1"));
+        assertEquals(0, spool.getUsedBytes());
+    }
+
+    @Test
+    void testIncompleteSpoolIsDiscardedOnStartup() throws Exception {
+        ChunkSpool spool = newSpool(DataSize.ofMegabytes(1));
+        spool.create("http://host/file.txt", "v1", List.of("chunk"));
+        try (Stream<Path> files = Files.walk(spoolDir)) {
+            Path manifest = files.filter(path -> path.getFileName().toString().equals("manifest.json")).findFirst().orElseThrow();
+            Files.delete(manifest);
+        }
+
+        ChunkSpool restarted = newSpool(DataSize.ofMegabytes(1));
+
+        assertNull(restarted.resume("http://host/file.txt", "v1"));
+        assertEquals(0, restarted.getUsedBytes());
+    }
+
+    @Test
+    void testSpoolOfChangedSourceIsDiscarded() throws Exception {
+        ChunkSpool spool = newSpool(DataSize.ofMegabytes(1));
+        spool.create("http://host/file.txt", "v1", List.of("stale chunk")).commit(1);
+        spool.create("http://host/unversioned.txt", null, List.of("chunk"));
+
+        assertNull(spool.resume("http://host/file.txt", "v2"));
+        assertNull(spool.resume("http://host/file.txt", "v1"));
+        assertNull(spool.resume("http://host/unversioned.txt", null));
+        assertEquals(0, spool.getUsedBytes());
+    }
+
+    @Test
+    void testSpoolOverCapIsSkipped() throws Exception {
+        ChunkSpool spool = newSpool(DataSize.ofBytes(64));
+
+        assertNotNull(spool.create("http://host/small.txt", "v1", List.of("small")));
+        assertNull(spool.create("http://host/large.txt", "v1", List.of("x".repeat(100))));
+    }
+}
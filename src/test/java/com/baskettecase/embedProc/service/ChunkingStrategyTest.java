@@ -0,0 +1,83 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the chunking strategies and their selection per DocumentType
+ */
+public class ChunkingStrategyTest {
+
+    private final List<ChunkingStrategy> available = List.of(new ParagraphChunkingStrategy(), new SentenceChunkingStrategy(),
+            new HeadingAwareChunkingStrategy(), new FixedTokenChunkingStrategy(50, "", "text-embedding-3-small"));
+    private TextChunkingService chunker;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        chunker = new TextChunkingService(7, 1, 0, meterRegistry, null, null, null);
+        chunker.setChunkingStrategies(available, "paragraph", "heading-aware", "sentence", "", "fixed-token");
+    }
+
+    @Test
+    void testSentenceStrategyEndsChunksAtAnySentence() {
+        String text = "Alpha beta gamma. Delta epsilon.\n\nZeta eta. Theta iota kappa lambda.";
+
+        assertEquals(List.of("Alpha beta gamma. Delta epsilon.\n\nZeta eta.", "Theta iota kappa lambda."),
+                chunker.chunkTextEnhanced(text, DocumentType.REFERENCE));
+        assertEquals(List.of("Alpha beta gamma. Delta epsilon.", "Zeta eta. Theta iota kappa lambda."),
+                chunker.chunkTextEnhanced(text, DocumentType.INFORMATION));
+        assertEquals(2, meterRegistry.get("embeddings.chunking.words").tags("documentType", "reference", "strategy", "sentence").summary().count());
+    }
+
+    @Test
+    void testHeadingAwareStrategyStartsChunkAtEachHeading() {
+        TextChunkingService wide = new TextChunkingService(100, 1);
+        wide.setChunkingStrategies(available, "paragraph", "heading-aware", "", "", "");
+        String text = "# Scope\n\nThis policy covers the building.\n\n2.1 Exclusions\n\nFloods are excluded.";
+
+        assertEquals(List.of("# Scope\n\nThis policy covers the building.", "2.1 Exclusions\n\nFloods are excluded."),
+                wide.chunkTextEnhanced(text, DocumentType.POLICY));
+        assertEquals(1, wide.chunkTextEnhanced(text, DocumentType.UNKNOWN).size());
+    }
+
+    @Test
+    void testHeadingDetection() {
+        for (String heading : new String[]{"# Scope", "### Claims", "4.2 Exclusions", "12. Definitions", "SECTION 4 - EXCLUSIONS", "Article 7"}) {
+            assertTrue(HeadingAwareChunkingStrategy.isHeading(heading), heading);
+        }
+        for (String text : new String[]{"#hashtag", "1. Notify us within 30 days.", "The insured must notify us", "2024", "OK"}) {
+            assertFalse(HeadingAwareChunkingStrategy.isHeading(text), text);
+        }
+    }
+
+    @Test
+    void testFixedTokenStrategyFillsWindowsAcrossParagraphs() {
+        ChunkTokenizer tokenizer = new ChunkTokenizer(50, "", "text-embedding-3-small");
+        StringBuilder text = new StringBuilder();
+        for (int paragraph = 0; paragraph < 20; paragraph++) {
+            text.append("The premium for paragraph ").append(paragraph).append(" is due. Claims follow.\n\n");
+        }
+
+        List<String> chunks = chunker.chunkTextEnhanced(text.toString(), DocumentType.UNKNOWN);
+
+        assertTrue(chunks.size() > 1);
+        for (int i = 0; i < chunks.size(); i++) {
+            int tokens = tokenizer.count(chunks.get(i));
+            assertTrue(tokens <= 50, "chunk of " + tokens + " tokens");
+            assertTrue(i == chunks.size() - 1 || tokens > 35, "chunk of " + tokens + " tokens");
+        }
+    }
+
+    @Test
+    void testUnknownStrategyNameIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> chunker.setChunkingStrategies(available, "paragraph", "semantic", "", "", ""));
+    }
+}
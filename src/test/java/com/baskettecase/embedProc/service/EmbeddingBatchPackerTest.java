@@ -0,0 +1,56 @@
+package com.baskettecase.embedProc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for EmbeddingBatchPacker
+ */
+public class EmbeddingBatchPackerTest {
+
+    private final ToIntFunction<Integer> identity = Integer::intValue;
+
+    @Test
+    void testBatchesFillUpToTokenBudget() {
+        EmbeddingBatchPacker packer = new EmbeddingBatchPacker(100, 10);
+
+        List<List<Integer>> batches = packer.pack(List.of(40, 40, 20, 90, 5, 5), identity);
+
+        assertEquals(List.of(List.of(40, 40, 20), List.of(90, 5, 5)), batches);
+    }
+
+    @Test
+    void testBatchesRespectMaxInputs() {
+        EmbeddingBatchPacker packer = new EmbeddingBatchPacker(1000, 2);
+
+        List<List<Integer>> batches = packer.pack(List.of(1, 1, 1, 1, 1), identity);
+
+        assertEquals(List.of(List.of(1, 1), List.of(1, 1), List.of(1)), batches);
+    }
+
+    @Test
+    void testOversizedItemGetsItsOwnBatch() {
+        EmbeddingBatchPacker packer = new EmbeddingBatchPacker(100, 10);
+
+        List<List<Integer>> batches = packer.pack(List.of(10, 250, 10), identity);
+
+        assertEquals(List.of(List.of(10), List.of(250), List.of(10)), batches);
+    }
+
+    @Test
+    void testEmptyInput() {
+        EmbeddingBatchPacker packer = new EmbeddingBatchPacker(100, 10);
+
+        assertTrue(packer.pack(List.<Integer>of(), identity).isEmpty());
+    }
+
+    @Test
+    void testInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new EmbeddingBatchPacker(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new EmbeddingBatchPacker(100, 0));
+    }
+}
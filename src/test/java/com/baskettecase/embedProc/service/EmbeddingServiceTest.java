@@ -1,16 +1,21 @@
 package com.baskettecase.embedProc.service;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.ai.vectorstore.VectorStore;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 import com.baskettecase.embedProc.service.EmbeddingService.TextWithMetadata;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Unit tests for the unified EmbeddingService
  */
@@ -28,16 +33,41 @@ public class EmbeddingServiceTest {
     @Mock
     private MonitorService monitorService;
     
+    private ExecutorService executor;
     private EmbeddingService service;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        service = new EmbeddingService(
+        executor = Executors.newCachedThreadPool();
+        service = newService(null, null, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private EmbeddingService newService(ChunkQuarantine quarantine, ExistingDocumentFilter filter, PgVectorCopyWriter copyWriter) {
+        return newService(quarantine, filter, null, copyWriter);
+    }
+
+    private EmbeddingService newService(ChunkQuarantine quarantine, ExistingDocumentFilter filter,
+                                        StaleChunkRemover remover, PgVectorCopyWriter copyWriter) {
+        return new EmbeddingService(
             vectorStore, 
             embeddingProcessedCounter, 
             embeddingErrorCounter, 
-            monitorService
+            monitorService,
+            executor,
+            10,
+            new EmbeddingBatchPacker(7000, 64),
+            new AdaptiveConcurrencyLimiter(5, 5, 5, 0.5, 2.0),
+            new StageMetrics(new SimpleMeterRegistry()),
+            quarantine,
+            filter,
+            remover,
+            copyWriter
         );
     }
 
@@ -115,4 +145,166 @@ public class EmbeddingServiceTest {
         verify(vectorStore, times(2)).add(any());
         verify(embeddingProcessedCounter, times(2)).increment();
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCopyWriterReplacesVectorStoreWrites() throws Exception {
+        PgVectorCopyWriter copyWriter = mock(PgVectorCopyWriter.class);
+        service = newService(null, null, copyWriter);
+
+        service.storeEmbeddingsWithMetadataParallel(java.util.List.of(
+            new TextWithMetadata("First chunk", 123456, 789012),
+            new TextWithMetadata("Second chunk", 123456, 789012)
+        ));
+
+        verify(copyWriter, times(1)).write(argThat(documents -> documents.size() == 2));
+        verify(vectorStore, never()).add(any());
+        verify(embeddingProcessedCounter, times(1)).increment(2);
+    }
+
+    @Test
+    void testFailingBatchIsBisectedToQuarantinePoisonChunk() {
+        ChunkQuarantine quarantine = mock(ChunkQuarantine.class);
+        service = newService(quarantine, null, null);
+        doThrow(new IllegalArgumentException("invalid input"))
+            .when(vectorStore).add(argThat(documents -> documents.stream().anyMatch(d -> d.getText().equals("poison"))));
+
+        service.storeEmbeddingsWithMetadataParallel(java.util.List.of(
+            new TextWithMetadata("First chunk", 123456, 789012),
+            new TextWithMetadata("poison", 123456, 789012),
+            new TextWithMetadata("Third chunk", 123456, 789012),
+            new TextWithMetadata("Fourth chunk", 123456, 789012)
+        ));
+
+        verify(quarantine, times(1)).quarantine(anyString(), eq("poison"), anyMap(), any(IllegalArgumentException.class));
+        verify(embeddingProcessedCounter, times(1)).increment(3);
+        verify(embeddingErrorCounter, times(1)).increment(1);
+    }
+
+    @Test
+    void testStoreOutageFailsBatchWithoutQuarantining() {
+        ChunkQuarantine quarantine = mock(ChunkQuarantine.class);
+        service = newService(quarantine, null, null);
+        doThrow(new org.springframework.jdbc.CannotGetJdbcConnectionException("Connection refused"))
+            .when(vectorStore).add(any());
+
+        int failed = service.storeEmbeddingsWithMetadataParallel(java.util.List.of(
+            new TextWithMetadata("First chunk", 123456, 789012),
+            new TextWithMetadata("Second chunk", 123456, 789012)
+        ));
+
+        assertEquals(2, failed);
+        verify(vectorStore, times(1)).add(any());
+        verify(quarantine, never()).quarantine(anyString(), anyString(), anyMap(), any());
+        verify(embeddingErrorCounter, times(1)).increment(2);
+    }
+
+    @Test
+    void testMicroBatchingCoalescesChunksFromConcurrentFiles() throws Exception {
+        service.setMicroBatching(true, 1000, 7000, 64);
+        try {
+            Thread otherFile = new Thread(() -> service.storeEmbeddingsWithMetadataParallel(java.util.List.of(
+                new TextWithMetadata("File A chunk 1", 123456, 789012),
+                new TextWithMetadata("File A chunk 2", 123456, 789012)
+            )));
+            otherFile.start();
+            service.storeEmbeddingsWithMetadataParallel(java.util.List.of(
+                new TextWithMetadata("File B chunk 1", 654321, 789012)
+            ));
+            otherFile.join(5000);
+
+            verify(vectorStore, times(1)).add(argThat(documents -> documents.size() == 3));
+            verify(embeddingProcessedCounter, times(1)).increment(3);
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testMicroBatchingFlushesOnInputLimit() {
+        service.setMicroBatching(true, 1000, 7000, 2);
+        try {
+            service.storeEmbeddingsParallel(java.util.List.of("One", "Two", "Three", "Four"));
+
+            verify(vectorStore, times(2)).add(argThat(documents -> documents.size() == 2));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testInvalidMetadataFailsChunksAlikeWithAndWithoutMicroBatching() {
+        java.util.List<TextWithMetadata> chunks = java.util.List.of(
+            new TextWithMetadata("Valid chunk", 123456, 789012, DocumentType.POLICY, null),
+            new TextWithMetadata("Invalid chunk", 12345, 789012, DocumentType.POLICY, null)
+        );
+
+        int failed = assertDoesNotThrow(() -> service.storeEmbeddingsWithMetadataParallel(chunks));
+        assertTrue(failed > 0);
+
+        service.setMicroBatching(true, 1000, 7000, 64);
+        try {
+            assertEquals(1, assertDoesNotThrow(() -> service.storeEmbeddingsWithMetadataParallel(chunks)));
+            verify(vectorStore, times(1)).add(argThat(documents -> documents.size() == 1
+                && documents.get(0).getText().equals("Valid chunk")));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testChunksOfKnownFileGetDeterministicIds() {
+        java.util.List<String> chunks = java.util.List.of("First chunk", "Second chunk");
+        service.storeEmbeddingsParallel(chunks, "http://host/file.txt", 0);
+        service.storeEmbeddingsParallel(chunks, "http://host/file.txt", 0);
+        service.storeEmbeddingsParallel(chunks, "http://host/file.txt", 5);
+
+        org.mockito.ArgumentCaptor<java.util.List<org.springframework.ai.document.Document>> captor =
+            org.mockito.ArgumentCaptor.forClass(java.util.List.class);
+        verify(vectorStore, times(3)).add(captor.capture());
+        java.util.List<String> first = captor.getAllValues().get(0).stream().map(org.springframework.ai.document.Document::getId).toList();
+        java.util.List<String> second = captor.getAllValues().get(1).stream().map(org.springframework.ai.document.Document::getId).toList();
+        java.util.List<String> shifted = captor.getAllValues().get(2).stream().map(org.springframework.ai.document.Document::getId).toList();
+
+        assertEquals(first, second);
+        assertNotEquals(first.get(0), first.get(1));
+        // Ids follow the content, not the position, so inserting a chunk keeps later ids stable
+        assertEquals(first, shifted);
+        assertEquals(first.get(0), EmbeddingService.chunkId("http://host/file.txt", "First chunk"));
+        assertEquals(first.get(0), java.util.UUID.fromString(first.get(0)).toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRepeatedChunkIsWrittenOnceAndWholeDocumentRemovesStaleRows() {
+        StaleChunkRemover remover = mock(StaleChunkRemover.class);
+        service = newService(null, null, remover, null);
+
+        service.storeEmbeddingsParallel(java.util.List.of("Same text", "Other text", "Same text"), "http://host/file.txt", 0);
+        org.mockito.ArgumentCaptor<java.util.List<org.springframework.ai.document.Document>> captor =
+            org.mockito.ArgumentCaptor.forClass(java.util.List.class);
+        verify(vectorStore).add(captor.capture());
+        assertEquals(java.util.List.of("Same text", "Other text"),
+            captor.getValue().stream().map(org.springframework.ai.document.Document::getText).toList());
+        verify(remover, never()).removeStale(anyString(), any());
+
+        service.storeEmbeddingWithMetadata("Whole document", null, null, DocumentType.REFERENCE, "/data/file.txt");
+        verify(remover).removeStale("/data/file.txt", java.util.List.of(EmbeddingService.chunkId("/data/file.txt", "Whole document")));
+    }
+
+    @Test
+    void testExistingChunksSkipEmbedding() {
+        ExistingDocumentFilter filter = mock(ExistingDocumentFilter.class);
+        when(filter.removeExisting(anyList())).thenReturn(java.util.List.of());
+        service = newService(null, filter, null);
+
+        service.storeEmbeddingsWithMetadataParallel(java.util.List.of(
+            new TextWithMetadata("Unchanged chunk", 123456, 789012, DocumentType.POLICY, "http://host/file.txt", 0)
+        ));
+
+        verify(filter, times(1)).removeExisting(argThat(documents -> documents.get(0).getId()
+            .equals(EmbeddingService.chunkId("http://host/file.txt", "Unchanged chunk"))));
+        verify(vectorStore, never()).add(any());
+        verify(embeddingProcessedCounter, times(1)).increment(1);
+    }
+}
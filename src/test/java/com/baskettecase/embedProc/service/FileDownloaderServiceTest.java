@@ -0,0 +1,96 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+/**
+ * Unit tests for FileDownloaderService
+ */
+public class FileDownloaderServiceTest {
+
+    private MockRestServiceServer server;
+    private SimpleMeterRegistry meterRegistry;
+    private FileDownloaderService downloader;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        meterRegistry = new SimpleMeterRegistry();
+        downloader = new FileDownloaderService(restTemplate, 2, new StageMetrics(meterRegistry));
+    }
+
+    @Test
+    void testStreamedBodyFeedsTheChunker() throws IOException {
+        server.expect(requestTo("http://host/webhdfs/v1/policy/doc.txt?op=OPEN"))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header("User-Agent", "embedProc/1.0"))
+                .andRespond(withSuccess("First paragraph here.\n\nSecond paragraph here.", MediaType.TEXT_PLAIN));
+        TextChunkingService chunker = new TextChunkingService(3, 1);
+
+        List<String> chunks = downloader.streamFile("http://host/webhdfs/v1/policy/doc.txt?user.name=hdfs",
+                body -> chunker.chunkStream(body, DocumentType.POLICY).toList());
+
+        assertEquals(List.of("First paragraph here.", "Second paragraph here."), chunks);
+        assertEquals(1, meterRegistry.get(StageMetrics.TIMER_NAME).tag("stage", StageMetrics.DOWNLOAD)
+                .tag("backend", "webhdfs").timer().count());
+        server.verify();
+    }
+
+    @Test
+    void testFailedResponseIsReportedWithoutCallingTheHandler() {
+        server.expect(requestTo("http://host/missing.txt")).andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+        IOException error = assertThrows(IOException.class,
+                () -> downloader.streamFile("http://host/missing.txt", body -> fail("handler must not run")));
+        assertTrue(error.getMessage().contains("missing.txt"));
+    }
+
+    @Test
+    void testSourceVersionComesFromHeadersOrFileStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag("\"abc\"");
+        server.expect(requestTo("http://host/doc.txt")).andExpect(method(HttpMethod.HEAD))
+                .andRespond(withSuccess().headers(headers));
+        server.expect(requestTo("http://host/webhdfs/v1/policy/doc.txt?op=GETFILESTATUS"))
+                .andRespond(withSuccess("{\"FileStatus\":{\"length\":42,\"modificationTime\":1700000000000}}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo("http://host/plain.txt")).andRespond(withSuccess());
+
+        assertEquals("\"abc\"", downloader.sourceVersion("http://host/doc.txt"));
+        assertEquals("42@1700000000000", downloader.sourceVersion("http://host/webhdfs/v1/policy/doc.txt?op=OPEN&user.name=hdfs"));
+        assertNull(downloader.sourceVersion("http://host/plain.txt"));
+        server.verify();
+    }
+
+    @Test
+    void testDownloadToTempCopiesTheBody() throws IOException {
+        server.expect(requestTo("http://host/doc.txt")).andRespond(withSuccess("Some text", MediaType.TEXT_PLAIN));
+
+        File file = downloader.downloadFileToTemp("http://host/doc.txt");
+
+        try {
+            assertEquals("Some text", Files.readString(file.toPath()));
+        } finally {
+            file.delete();
+        }
+        server.reset();
+        server.expect(requestTo("http://host/missing.txt")).andRespond(withServerError());
+        assertNull(downloader.downloadFileToTemp("http://host/missing.txt"));
+    }
+}
@@ -0,0 +1,152 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for HedgedEmbeddingModel
+ */
+public class HedgedEmbeddingModelTest {
+
+    private ExecutorService executor;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testFastPrimaryIsNotHedged() {
+        EmbeddingModel primary = model(3, 0f, 0);
+        EmbeddingModel secondary = model(3, 1f, 0);
+        HedgedEmbeddingModel hedged = new HedgedEmbeddingModel(primary, secondary, executor, meterRegistry, 0.95, 1000, 10, 50);
+
+        float[] embedding = hedged.embed("text");
+
+        assertEquals(0f, embedding[0]);
+        verify(secondary, never()).call(any());
+        assertEquals(0, meterRegistry.counter("embeddings.hedge.fired").count());
+    }
+
+    @Test
+    void testSlowPrimaryIsHedgedAndCancelled() throws Exception {
+        CountDownLatch primaryInterrupted = new CountDownLatch(1);
+        EmbeddingModel primary = mock(EmbeddingModel.class);
+        when(primary.dimensions()).thenReturn(3);
+        when(primary.call(any(EmbeddingRequest.class))).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                primaryInterrupted.countDown();
+                throw e;
+            }
+            return response(0f, 3);
+        });
+        EmbeddingModel secondary = model(3, 1f, 0);
+        HedgedEmbeddingModel hedged = new HedgedEmbeddingModel(primary, secondary, executor, meterRegistry, 0.95, 50, 10, 50);
+
+        EmbeddingResponse response = hedged.call(new EmbeddingRequest(List.of("text"), null));
+
+        assertEquals(1f, response.getResults().get(0).getOutput()[0]);
+        assertTrue(HedgedEmbeddingModel.answeredBySecondary(response));
+        assertTrue(primaryInterrupted.await(5, TimeUnit.SECONDS), "losing primary call should be cancelled");
+        assertEquals(1, meterRegistry.counter("embeddings.hedge.fired").count());
+        assertEquals(1, meterRegistry.counter("embeddings.hedge.wins", "model", "secondary").count());
+    }
+
+    @Test
+    void testFailedHedgeFallsBackToPrimary() {
+        EmbeddingModel primary = model(3, 0f, 200);
+        EmbeddingModel secondary = mock(EmbeddingModel.class);
+        when(secondary.dimensions()).thenReturn(3);
+        when(secondary.call(any(EmbeddingRequest.class))).thenThrow(new IllegalStateException("secondary down"));
+        HedgedEmbeddingModel hedged = new HedgedEmbeddingModel(primary, secondary, executor, meterRegistry, 0.95, 20, 10, 50);
+
+        float[] embedding = hedged.embed("text");
+
+        assertEquals(0f, embedding[0]);
+        assertEquals(1, meterRegistry.counter("embeddings.hedge.wins", "model", "primary").count());
+    }
+
+    @Test
+    void testModelsWithDifferentDimensionsAreNotHedged() {
+        EmbeddingModel primary = model(768, 0f, 200);
+        EmbeddingModel secondary = model(1536, 1f, 0);
+
+        HedgedEmbeddingModel hedged = new HedgedEmbeddingModel(primary, secondary, executor, meterRegistry, 0.95, 20, 10, 50);
+
+        verify(primary, never()).dimensions();
+        verify(secondary, never()).dimensions();
+        assertEquals(0f, hedged.embed("text")[0]);
+        assertEquals(768, hedged.dimensions());
+        verify(secondary, never()).call(any());
+    }
+
+    @Test
+    void testCancelledPrimaryLatencyIsRecordedAsLowerBound() {
+        EmbeddingModel primary = model(3, 0f, 2_000);
+        EmbeddingModel secondary = model(3, 1f, 0);
+        // A window of one sample makes the delay follow the last primary latency
+        HedgedEmbeddingModel hedged = new HedgedEmbeddingModel(primary, secondary, executor, meterRegistry, 0.95, 100, 1, 1);
+
+        assertEquals(1f, hedged.embed("text")[0]);
+
+        assertTrue(hedged.hedgeDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(100),
+            "hedge delay should not drop below the latency the cancelled primary already showed");
+    }
+
+    @Test
+    void testLatencyWindowPercentile() {
+        HedgedEmbeddingModel.LatencyWindow window = new HedgedEmbeddingModel.LatencyWindow(100);
+        assertEquals(-1, window.percentile(0.95));
+
+        for (int i = 1; i <= 100; i++) {
+            window.record(i);
+        }
+        assertEquals(95, window.percentile(0.95));
+        assertEquals(50, window.percentile(0.5));
+    }
+
+    private static EmbeddingModel model(int dimensions, float value, long delayMillis) {
+        EmbeddingModel model = mock(EmbeddingModel.class);
+        when(model.dimensions()).thenReturn(dimensions);
+        when(model.call(any(EmbeddingRequest.class))).thenAnswer(invocation -> {
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            return response(value, dimensions);
+        });
+        when(model.embed(anyString())).thenCallRealMethod();
+        when(model.embed(anyList())).thenCallRealMethod();
+        return model;
+    }
+
+    private static EmbeddingResponse response(float value, int dimensions) {
+        float[] vector = new float[dimensions];
+        vector[0] = value;
+        return new EmbeddingResponse(List.of(new Embedding(vector, 0)));
+    }
+}
@@ -0,0 +1,86 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for StageMetrics and TimedEmbeddingModel
+ */
+public class StageMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private StageMetrics stageMetrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stageMetrics = new StageMetrics(meterRegistry);
+    }
+
+    @Test
+    void testEmbeddingInsideScopeIsTaggedAndAccumulated() {
+        EmbeddingModel delegate = mock(EmbeddingModel.class);
+        when(delegate.call(any(EmbeddingRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return new EmbeddingResponse(List.of(new Embedding(new float[]{1f}, 0)));
+        });
+        TimedEmbeddingModel model = new TimedEmbeddingModel(delegate, stageMetrics, "ollama");
+
+        long embedNanos;
+        try (StageMetrics.Scope scope = stageMetrics.open("policy")) {
+            model.call(new EmbeddingRequest(List.of("text"), null));
+            embedNanos = scope.getEmbedNanos();
+        }
+        model.call(new EmbeddingRequest(List.of("text"), null));
+
+        Timer policy = timer("embed", "policy", "ollama");
+        assertEquals(1, policy.count());
+        assertEquals(embedNanos, policy.totalTime(TimeUnit.NANOSECONDS), 0.0);
+        assertTrue(embedNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, timer("embed", "unknown", "ollama").count());
+    }
+
+    @Test
+    void testChunkingIsTimedByDocumentType() {
+        TextChunkingService chunker = new TextChunkingService(5, 1, 0, null, stageMetrics, null, null);
+
+        chunker.chunkTextEnhanced("one two three\n\nfour five", DocumentType.POLICY);
+
+        assertEquals(1, timer("chunk", "policy", "local").count());
+        assertNotNull(timer("chunk", "policy", "local").takeSnapshot().histogramCounts());
+    }
+
+    @Test
+    void testDocumentTypeOfBatch() {
+        Document policy = new Document("a", Map.of("sourcePath", "http://host/policies/100001-100002.txt"));
+        Document reference = new Document("b", Map.of("sourcePath", "http://host/reference/guide.txt"));
+        Document noSource = new Document("c", Map.of());
+
+        assertEquals("policy", StageMetrics.documentTypeOf(List.of(policy, policy)));
+        assertEquals("mixed", StageMetrics.documentTypeOf(List.of(policy, reference)));
+        assertEquals("unknown", StageMetrics.documentTypeOf(List.of(noSource)));
+    }
+
+    private Timer timer(String stage, String documentType, String backend) {
+        return meterRegistry.get(StageMetrics.TIMER_NAME)
+                .tag("stage", stage)
+                .tag("documentType", documentType)
+                .tag("backend", backend)
+                .timer();
+    }
+}
@@ -0,0 +1,469 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TextChunkingService
+ */
+public class TextChunkingServiceTest {
+
+    private final TextChunkingService chunker = new TextChunkingService(20, 3);
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "",
+        "   ",
+        "\n\n\n",
+        "single paragraph with a handful of words",
+        "first paragraph here\n\nsecond paragraph there",
+        "\n\nleading separator then words one two three",
+        "trailing separator words one two three\n \t\n",
+        "windows line endings one two\r\n\r\nnext paragraph three four",
+        "one line feed\nis not a separator at all",
+        "tabs and spaces\n \t \u000B\f \nare part of the separator run",
+        "control char\n\u0001\ndoes not separate paragraphs",
+        "-- ** !!\n\nno meaningful words above but here are some",
+    })
+    void testStreamMatchesStringChunking(String text) {
+        assertEquals(chunker.chunkTextEnhanced(text), streamChunks(text));
+    }
+
+    @Test
+    void testStreamMatchesStringChunkingOnRandomDocuments() {
+        String[] tokens = {"alpha", "beta", "42", "--", "x", " ", "  ", "\t", "\n", "\n\n", "\n \n", "\r\n", "été", "!!"};
+        Random random = new Random(15);
+        for (int document = 0; document < 500; document++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(400);
+            for (int i = 0; i < length; i++) {
+                text.append(tokens[random.nextInt(tokens.length)]);
+                if (random.nextBoolean()) {
+                    text.append(' ');
+                }
+            }
+            assertEquals(chunker.chunkTextEnhanced(text.toString()), streamChunks(text.toString()), "document " + document);
+        }
+    }
+
+    /**
+     * Property: for any text and any chunk size limits, chunking matches the original regex-based
+     * implementation, which never split paragraphs. Texts are generated from fragments chosen to
+     * stress word and paragraph edges.
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {1, 2, 3, 4, 5, 6, 7, 8})
+    void testChunkingMatchesRegexImplementation(long seed) {
+        Random random = new Random(seed);
+        for (int run = 0; run < 250; run++) {
+            String text = randomText(random);
+            int maxWords = 1 + random.nextInt(40);
+            int minWords = random.nextInt(10);
+            TextChunkingService service = new TextChunkingService(maxWords, minWords);
+            service.setSplitOversizedParagraphs(false);
+
+            List<String> expected = regexChunks(text, maxWords, minWords);
+            assertEquals(expected, service.chunkTextEnhanced(text), "seed " + seed + " run " + run);
+            assertEquals(expected, streamChunks(service, text), "seed " + seed + " run " + run);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {11, 12, 13, 14})
+    void testWordCountMatchesRegexImplementation(long seed) {
+        Random random = new Random(seed);
+        for (int run = 0; run < 1000; run++) {
+            String text = randomText(random);
+            assertEquals(regexWordCount(text), TextChunkingService.countMeaningfulWords(text), "text: " + text);
+        }
+    }
+
+    @Test
+    void testOverlapRepeatsTrailingWordsOfPreviousChunk() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TextChunkingService service = new TextChunkingService(6, 1, 2, meterRegistry, null, null, null);
+
+        List<String> chunks = service.chunkTextEnhanced("a b c d\n\ne f g\n\nh i j k l", DocumentType.POLICY);
+
+        // The last chunk only has room for one word of overlap
+        assertEquals(List.of("a b c d", "c d\n\ne f g", "g\n\nh i j k l"), chunks);
+        assertEquals(3, meterRegistry.get("embeddings.chunking.overlap.words").tag("documentType", "policy").summary().totalAmount());
+        assertEquals(12, meterRegistry.get("embeddings.chunking.words").tag("documentType", "policy").summary().totalAmount());
+    }
+
+    /**
+     * Property: with overlap, every chunk, overlap included, stays within the word limit
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {21, 22, 23, 24})
+    void testOverlapCountsAgainstWordLimit(long seed) {
+        Random random = new Random(seed);
+        for (int run = 0; run < 250; run++) {
+            String text = randomText(random).replace("alpha", "alpha.");
+            int maxWords = 1 + random.nextInt(30);
+            TextChunkingService service = new TextChunkingService(maxWords, random.nextInt(5), 1 + random.nextInt(10));
+
+            List<String> chunks = service.chunkTextEnhanced(text);
+            String context = "seed " + seed + " run " + run;
+            for (String chunk : chunks) {
+                assertTrue(TextChunkingService.countMeaningfulWords(chunk) <= maxWords, context);
+            }
+            assertEquals(chunks, streamChunks(service, text), context);
+        }
+    }
+
+    /**
+     * Property: with overlap in token mode, every chunk, overlap included, fits the token budget
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {25, 26})
+    void testOverlapCountsAgainstTokenBudget(long seed) {
+        Random random = new Random(seed);
+        String[] words = {"the", "embedding", "provider", "bills", "in", "tokens.", "2024", "naïve", "CO2e", "—", "x7"};
+        for (int run = 0; run < 50; run++) {
+            int maxTokens = 20 + random.nextInt(200);
+            int overlap = 1 + random.nextInt(40);
+            ChunkTokenizer tokenizer = new ChunkTokenizer(maxTokens, "", "text-embedding-3-small");
+            TextChunkingService service = new TextChunkingService(1000, 1, overlap, null, null, tokenizer, null);
+
+            StringBuilder text = new StringBuilder();
+            for (int paragraph = random.nextInt(40); paragraph > 0; paragraph--) {
+                for (int word = 1 + random.nextInt(80); word > 0; word--) {
+                    text.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                text.append("\n\n");
+            }
+
+            List<String> chunks = service.chunkTextEnhanced(text.toString());
+            for (String chunk : chunks) {
+                assertTrue(tokenizer.count(chunk) <= maxTokens, "chunk of " + tokenizer.count(chunk) + " tokens over " + maxTokens);
+            }
+            assertEquals(chunks, streamChunks(service, text.toString()));
+        }
+    }
+
+    @Test
+    void testOversizedParagraphIsSplitAtSentencesThenWords() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TextChunkingService service = new TextChunkingService(5, 1, 0, meterRegistry, null, null, null);
+
+        List<String> chunks = service.chunkTextEnhanced(
+                "One two. Three four five. Six seven\teight nine ten eleven twelve!\n\nshort one", DocumentType.POLICY);
+
+        assertEquals(List.of("One two. Three four five.", "Six seven\teight nine ten", "eleven twelve!\n\nshort one"), chunks);
+        assertEquals(1, meterRegistry.get("embeddings.chunking.oversized.paragraphs")
+                .tags("documentType", "policy", "split", "word").counter().count());
+    }
+
+    /**
+     * Property: with oversized paragraphs split, no chunk has more meaningful words than the limit
+     * and no words are lost
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {61, 62, 63, 64})
+    void testNoChunkExceedsWordLimit(long seed) {
+        Random random = new Random(seed);
+        for (int run = 0; run < 250; run++) {
+            String text = randomText(random).replace("alpha", "alpha.");
+            int maxWords = 1 + random.nextInt(20);
+            TextChunkingService service = new TextChunkingService(maxWords, 0);
+            TextChunkingService unsplit = new TextChunkingService(maxWords, 0);
+            unsplit.setSplitOversizedParagraphs(false);
+
+            List<String> chunks = service.chunkTextEnhanced(text);
+            String context = "seed " + seed + " run " + run;
+            for (String chunk : chunks) {
+                assertTrue(TextChunkingService.countMeaningfulWords(chunk) <= maxWords, context);
+            }
+            assertEquals(unsplit.chunkTextEnhanced(text).stream().mapToInt(TextChunkingService::countMeaningfulWords).sum(),
+                    chunks.stream().mapToInt(TextChunkingService::countMeaningfulWords).sum(), context);
+            assertEquals(chunks, streamChunks(service, text), context);
+        }
+    }
+
+    /**
+     * Property: with content-defined boundaries, inserting a paragraph changes only the chunks
+     * around it, and the chunk limit still holds
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {71, 72, 73, 74})
+    void testContentDefinedBoundariesLocaliseEdits(long seed) {
+        Random random = new Random(seed);
+        String[] words = {"policy", "claim", "coverage", "the", "of", "insured", "premium", "2024", "limit", "and"};
+        List<String> paragraphs = new ArrayList<>();
+        for (int paragraph = 0; paragraph < 200; paragraph++) {
+            StringBuilder text = new StringBuilder();
+            for (int word = 3 + random.nextInt(40); word > 0; word--) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            paragraphs.add(text.toString().trim());
+        }
+        String original = String.join("\n\n", paragraphs);
+        int edited = 20 + random.nextInt(160);
+        paragraphs.add(edited, "an amended clause inserted into the document, long enough to shift greedy packing");
+        String revised = String.join("\n\n", paragraphs);
+
+        TextChunkingService contentDefined = new TextChunkingService(200, 1);
+        contentDefined.setContentDefinedBoundaries(true, 0, 0);
+        List<String> before = contentDefined.chunkTextEnhanced(original);
+        List<String> after = contentDefined.chunkTextEnhanced(revised);
+        assertTrue(after.stream().filter(chunk -> !before.contains(chunk)).count() <= 2, "seed " + seed);
+        for (String chunk : after) {
+            assertTrue(TextChunkingService.countMeaningfulWords(chunk) <= 200);
+        }
+    }
+
+    /**
+     * Property: in token mode every chunk fits the token budget, and
+     * chunks are packed greedily, so the next paragraph would not have fitted.
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {31, 32, 33})
+    void testTokenModeFillsChunksUpToTokenBudget(long seed) {
+        Random random = new Random(seed);
+        String[] words = {"the", "embedding", "provider", "bills", "in", "tokens", "2024", "naïve", "CO2e", "—", "x7"};
+        for (int run = 0; run < 50; run++) {
+            int maxTokens = 20 + random.nextInt(200);
+            ChunkTokenizer tokenizer = new ChunkTokenizer(maxTokens, "", "text-embedding-3-small");
+            TextChunkingService service = new TextChunkingService(1000, 1, 0, null, null, tokenizer, null);
+
+            StringBuilder text = new StringBuilder();
+            for (int paragraph = random.nextInt(40); paragraph > 0; paragraph--) {
+                for (int word = 1 + random.nextInt(30); word > 0; word--) {
+                    text.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                text.append("\n\n");
+            }
+
+            List<String> chunks = service.chunkTextEnhanced(text.toString());
+            assertEquals(chunks, streamChunks(service, text.toString()));
+            for (int i = 0; i < chunks.size(); i++) {
+                String chunk = chunks.get(i);
+                assertTrue(tokenizer.count(chunk) <= maxTokens, "chunk of " + tokenizer.count(chunk) + " tokens");
+                if (i + 1 < chunks.size()) {
+                    // Paragraphs are counted separately, which may overcount by about a token each
+                    String nextParagraph = chunks.get(i + 1).split("\n\n")[0];
+                    int paragraphs = chunk.split("\n\n").length;
+                    assertTrue(tokenizer.count(chunk + "\n\n" + nextParagraph) > maxTokens - paragraphs - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Property: in token mode the pieces of split paragraphs fit the token budget too, although
+     * the whitespace before a number or dash costs a token of its own
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {34, 35})
+    void testTokenModeSplitParagraphsFitTokenBudget(long seed) {
+        Random random = new Random(seed);
+        String[] words = {"the", "embedding", "provider", "bills", "in", "tokens.", "2024", "naïve", "CO2e", "—", "x7"};
+        for (int run = 0; run < 50; run++) {
+            int maxTokens = 20 + random.nextInt(200);
+            ChunkTokenizer tokenizer = new ChunkTokenizer(maxTokens, "", "text-embedding-3-small");
+            TextChunkingService service = new TextChunkingService(1000, 1, 0, null, null, tokenizer, null);
+
+            StringBuilder text = new StringBuilder();
+            for (int paragraph = random.nextInt(20); paragraph > 0; paragraph--) {
+                for (int word = 1 + random.nextInt(300); word > 0; word--) {
+                    text.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                text.append("\n\n");
+            }
+
+            for (String chunk : service.chunkTextEnhanced(text.toString())) {
+                assertTrue(tokenizer.count(chunk) <= maxTokens, "chunk of " + tokenizer.count(chunk) + " tokens over " + maxTokens);
+            }
+        }
+    }
+
+    /**
+     * Property: chunking large texts in parallel segments gives the same chunks as sequential
+     * chunking, wherever the segment seams fall
+     */
+    @ParameterizedTest
+    @ValueSource(longs = {41, 42, 43, 44})
+    void testParallelChunkingMatchesSequential(long seed) {
+        Random random = new Random(seed);
+        for (int run = 0; run < 250; run++) {
+            String text = randomText(random);
+            int maxWords = 1 + random.nextInt(30);
+            int minWords = random.nextInt(5);
+            int overlap = random.nextInt(4);
+
+            TextChunkingService parallel = new TextChunkingService(maxWords, minWords, overlap);
+            parallel.setParallelChunking(0, 1 + random.nextInt(60));
+            List<String> expected = new TextChunkingService(maxWords, minWords, overlap).chunkTextEnhanced(text);
+            assertEquals(expected, parallel.chunkTextEnhanced(text), "seed " + seed + " run " + run);
+        }
+    }
+
+    @Test
+    void testPessimisticEstimateIsAboveExactCount() {
+        ChunkTokenizer tokenizer = new ChunkTokenizer(512, "cl100k_base", "");
+        for (String text : new String[]{"plain English prose about embeddings", "2024-06-30 12:00:00", "naïve café", "数据处理管道"}) {
+            assertTrue(ChunkTokenizer.pessimisticEstimate(text) >= tokenizer.count(text), text);
+        }
+    }
+
+    @Test
+    void testStreamYieldsChunksBeforeReadingWholeInput() {
+        String paragraph = "word ".repeat(15) + "\n\n";
+        String text = paragraph.repeat(10_000);
+        CountingReader reader = new CountingReader(new StringReader(text));
+
+        try (Stream<String> chunks = chunker.chunkStream(reader, DocumentType.UNKNOWN)) {
+            Iterator<String> iterator = chunks.iterator();
+            assertTrue(iterator.hasNext());
+            assertEquals(15, iterator.next().split(" ").length);
+            assertTrue(reader.charsRead < text.length() / 10, "read " + reader.charsRead + " of " + text.length());
+        }
+        assertTrue(reader.closed);
+    }
+
+    @Test
+    void testStreamBoundsMemoryOnTextWithoutBlankLines() {
+        String sentence = "The claim is covered by the plan.\n";
+        String text = sentence.repeat(120_000);
+        TextChunkingService unsplit = new TextChunkingService(20, 3);
+        unsplit.setSplitOversizedParagraphs(false);
+        CountingReader reader = new CountingReader(new StringReader(text));
+
+        long words = 0;
+        try (Stream<String> chunks = unsplit.chunkStream(reader, DocumentType.UNKNOWN)) {
+            Iterator<String> iterator = chunks.iterator();
+            assertTrue(iterator.hasNext());
+            String first = iterator.next();
+            assertTrue(reader.charsRead <= 2 * 8192, "read " + reader.charsRead + " of " + text.length());
+            words += TextChunkingService.countMeaningfulWords(first);
+            while (iterator.hasNext()) {
+                String chunk = iterator.next();
+                int chunkWords = TextChunkingService.countMeaningfulWords(chunk);
+                assertTrue(chunkWords <= 20, chunk);
+                words += chunkWords;
+            }
+        }
+        assertEquals(7L * 120_000, words);
+        assertEquals(text.length(), reader.charsRead);
+    }
+
+    private List<String> streamChunks(String text) {
+        return streamChunks(chunker, text);
+    }
+
+    private static List<String> streamChunks(TextChunkingService service, String text) {
+        try (Stream<String> chunks = service.chunkStream(new StringReader(text), DocumentType.UNKNOWN)) {
+            return chunks.toList();
+        }
+    }
+
+    private static final String[] FRAGMENTS = {
+        "alpha", "Beta", "42", "x", "--", "!!", "é", "naïve", "\u0001", "\u00A0", "\u0085", "\u2028", "a\u2029b",
+        " ", "  ", "\t", "\u000B", "\f", "\r", "\n", "\n\n", "\n \n", "\r\n\r\n", "\n\t\n\n", "\n\u0001\n"
+    };
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(300);
+        for (int i = 0; i < length; i++) {
+            text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * The original chunking algorithm, kept as the reference for equivalence tests
+     */
+    private static List<String> regexChunks(String text, int maxWordsPerChunk, int minMeaningfulWords) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return chunks;
+        }
+
+        String[] paragraphs = text.split("\\n\\s*\\n");
+        StringBuilder currentChunkBuilder = new StringBuilder();
+        int currentWordCount = 0;
+
+        for (String paragraph : paragraphs) {
+            if (paragraph.trim().isEmpty()) continue;
+
+            int paragraphWordCount = regexWordCount(paragraph);
+
+            if (currentWordCount > 0 && currentWordCount + paragraphWordCount > maxWordsPerChunk) {
+                String chunk = currentChunkBuilder.toString().trim();
+                if (regexWordCount(chunk) >= minMeaningfulWords) {
+                    chunks.add(chunk);
+                }
+                currentChunkBuilder.setLength(0);
+                currentWordCount = 0;
+            }
+
+            if (currentChunkBuilder.length() > 0) {
+                currentChunkBuilder.append("\n\n");
+            }
+            currentChunkBuilder.append(paragraph.trim());
+            currentWordCount += paragraphWordCount;
+        }
+
+        if (currentChunkBuilder.length() > 0) {
+            String chunk = currentChunkBuilder.toString().trim();
+            if (regexWordCount(chunk) >= minMeaningfulWords) {
+                chunks.add(chunk);
+            }
+        }
+
+        return chunks;
+    }
+
+    private static int regexWordCount(String text) {
+        if (text == null || text.trim().isEmpty()) return 0;
+
+        String[] words = text.trim().split("\\s+");
+        int meaningfulWordCount = 0;
+        for (String word : words) {
+            if (word != null && !word.trim().isEmpty() && word.matches(".*[a-zA-Z0-9].*")) {
+                meaningfulWordCount++;
+            }
+        }
+        return meaningfulWordCount;
+    }
+
+    private static final class CountingReader extends Reader {
+        private final Reader delegate;
+        private long charsRead;
+        private boolean closed;
+
+        private CountingReader(Reader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = delegate.read(buffer, offset, length);
+            if (read > 0) {
+                charsRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            delegate.close();
+        }
+    }
+}
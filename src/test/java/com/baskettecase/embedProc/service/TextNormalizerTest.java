@@ -0,0 +1,187 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TextNormalizer
+ */
+public class TextNormalizerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private TextNormalizer normalizer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        normalizer = new TextNormalizer(meterRegistry, true, true, 3, 8, 120, 60);
+    }
+
+    @Test
+    void testCollapsesWhitespaceAndJoinsHyphenatedWords() {
+        String text = "  The   policy\tcover-\nage applies   \n\n\n\n to all em-\n  ployees.\u00AD\u0007\nWell-\nKnown terms\r\nstay apart.";
+
+        String normalized = normalizer.normalize(text, DocumentType.POLICY);
+
+        assertEquals("The policy cover-age applies\n\nto all em-ployees.\nWell-\nKnown terms\nstay apart.", normalized);
+        assertEquals(text.length() - normalized.length(),
+                meterRegistry.get("embeddings.normalization.chars.removed").tag("documentType", "policy").counter().count());
+    }
+
+    @Test
+    void testCompoundBrokenAtLineEndKeepsItsHyphen() {
+        String text = "A well-\nknown and long-\nstanding rule.";
+
+        assertEquals("A well-known and long-standing rule.", normalizer.normalize(text, DocumentType.UNKNOWN));
+    }
+
+    @Test
+    void testDropsLinesRepeatedAcrossPages() {
+        String[] bodies = {"Scope of the plan.", "Eligibility rules.", "Claims process.", "Appeals."};
+        StringBuilder text = new StringBuilder();
+        for (int page = 1; page <= 4; page++) {
+            text.append("ACME Corp Confidential\n\n").append(bodies[page - 1]).append("\n\nPage ").append(page).append(" of 4\n\f");
+        }
+
+        String normalized = normalizer.normalize(text, DocumentType.REFERENCE);
+
+        // The first two occurrences are kept, later ones dropped
+        assertEquals(2, normalized.split("ACME Corp Confidential", -1).length - 1);
+        assertEquals(2, normalized.split("Page \\d of 4", -1).length - 1);
+        for (String body : bodies) {
+            assertTrue(normalized.contains(body));
+        }
+        assertEquals(4, meterRegistry.get("embeddings.normalization.lines.removed").tag("documentType", "reference").counter().count());
+        assertTrue(meterRegistry.get("embeddings.normalization.tokens.saved").tag("documentType", "reference").counter().count() > 0);
+    }
+
+    @Test
+    void testLinesRepeatedWithinOnePageAreKept() {
+        String text = String.join("\n", List.of("Not applicable", "Not applicable", "Not applicable", "Not applicable"));
+
+        assertEquals(text, normalizer.normalize(text, DocumentType.UNKNOWN));
+    }
+
+    @Test
+    void testStreamingMatchesInMemoryNormalization() throws IOException {
+        Random random = new Random(24);
+        String[] pieces = {"word", "Header line 7", "hyph-", "lower", "Upper", "  ", "\t", "\n", "\n\n", "\r\n", "\f", " ", "\u0000"};
+        for (int round = 0; round < 200; round++) {
+            String text = random.ints(random.nextInt(400), 0, pieces.length)
+                    .mapToObj(i -> pieces[i])
+                    .collect(Collectors.joining(random.nextBoolean() ? " " : ""));
+            String expected = normalizer.normalize(text, DocumentType.UNKNOWN);
+
+            int readSize = 1 + random.nextInt(16);
+            StringBuilder streamed = new StringBuilder();
+            try (Reader reader = normalizer.normalizing(new ChoppyReader(text, readSize), DocumentType.UNKNOWN)) {
+                char[] chars = new char[readSize];
+                for (int read; (read = reader.read(chars, 0, chars.length)) >= 0; ) {
+                    streamed.append(chars, 0, read);
+                }
+            }
+            assertEquals(expected, streamed.toString(), text);
+        }
+    }
+
+    @Test
+    void testStreamingRecordsMetricsForWholeDocument() throws IOException {
+        String text = "Claims   are paid\twithin thirty days.\n".repeat(2_000);
+        String expected = normalizer.normalize(text, DocumentType.POLICY);
+        double removedInMemory = removedChars(DocumentType.POLICY);
+
+        String streamed = readAll(normalizer.normalizing(new ChoppyReader(text, 1000), DocumentType.POLICY));
+
+        assertEquals(expected, streamed);
+        assertEquals(text.length() - expected.length(), removedInMemory);
+        assertEquals(2 * removedInMemory, removedChars(DocumentType.POLICY));
+    }
+
+    @Test
+    void testStreamingBreaksLinesWithoutTerminators() throws IOException {
+        String text = "word  ".repeat(1_000_000);
+        CountingReader counting = new CountingReader(text);
+
+        try (Reader reader = normalizer.normalizing(counting, DocumentType.UNKNOWN)) {
+            char[] chars = new char[10];
+            assertEquals(10, reader.read(chars, 0, chars.length));
+            assertTrue(counting.charsRead < 64 * 1024, "read " + counting.charsRead + " of " + text.length());
+        }
+        String streamed = readAll(normalizer.normalizing(new StringReader(text), DocumentType.UNKNOWN));
+        assertEquals(normalizer.normalize(text, DocumentType.UNKNOWN), streamed.replace('\n', ' '));
+    }
+
+    private double removedChars(DocumentType documentType) {
+        return meterRegistry.get("embeddings.normalization.chars.removed").tag("documentType", documentType.getValue()).counter().count();
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        try (reader) {
+            StringBuilder text = new StringBuilder();
+            char[] chars = new char[4096];
+            for (int read; (read = reader.read(chars, 0, chars.length)) >= 0; ) {
+                text.append(chars, 0, read);
+            }
+            return text.toString();
+        }
+    }
+
+    @Test
+    void testChunkerNormalizesBeforeChunking() {
+        TextChunkingService chunker = new TextChunkingService(100, 1, 0, null, null, null, normalizer);
+        String text = "First   para-\ngraph here.\n\n\n\nSecond\tparagraph.";
+
+        assertEquals(List.of("First para-graph here.\n\nSecond paragraph."), chunker.chunkTextEnhanced(text, DocumentType.UNKNOWN));
+        assertEquals(chunker.chunkTextEnhanced(text, DocumentType.UNKNOWN), chunker.chunkStream(new StringReader(text), DocumentType.UNKNOWN).toList());
+    }
+
+    // Returns at most readSize characters per read, to split lines across reads
+    private static final class ChoppyReader extends Reader {
+        private final Reader reader;
+        private final int readSize;
+
+        private ChoppyReader(String text, int readSize) {
+            this.reader = new StringReader(text);
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return reader.read(buffer, offset, Math.min(length, readSize));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class CountingReader extends Reader {
+        private final Reader reader;
+        private long charsRead;
+
+        private CountingReader(String text) {
+            this.reader = new StringReader(text);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = reader.read(buffer, offset, length);
+            charsRead += Math.max(read, 0);
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.baskettecase.embedProc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TokenBucket
+ */
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testStartsFullAndDrains() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0);
+
+        assertEquals(0, bucket.nanosUntilAvailable(10, 0));
+        bucket.consume(10);
+
+        assertEquals(SECOND, bucket.nanosUntilAvailable(1, 0));
+    }
+
+    @Test
+    void testRefillsOverTimeUpToCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        bucket.consume(10);
+
+        assertEquals(4.0, bucket.getAvailable(2 * SECOND), 1e-9);
+        assertEquals(10.0, bucket.getAvailable(60 * SECOND), 1e-9);
+    }
+
+    @Test
+    void testWaitIsProportionalToDeficit() {
+        TokenBucket bucket = new TokenBucket(100, 10, 0);
+        bucket.consume(100);
+
+        assertEquals(5 * SECOND, bucket.nanosUntilAvailable(50, 0), 1000);
+        assertEquals(0, bucket.nanosUntilAvailable(50, 5 * SECOND));
+    }
+
+    @Test
+    void testOversizedRequestIsClampedToCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0);
+
+        assertEquals(0, bucket.nanosUntilAvailable(500, 0));
+        bucket.consume(500);
+        assertEquals(0.0, bucket.getAvailable(0), 1e-9);
+    }
+}
@@ -0,0 +1,69 @@
+package com.baskettecase.embedProc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for WarmupService
+ */
+public class WarmupServiceTest {
+
+    private EmbeddingModel embeddingModel;
+    private DataSource dataSource;
+    private Connection connection;
+    private Statement statement;
+    private SimpleMeterRegistry meterRegistry;
+    private WarmupService warmupService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        embeddingModel = mock(EmbeddingModel.class);
+        dataSource = mock(DataSource.class);
+        connection = mock(Connection.class);
+        statement = mock(Statement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        meterRegistry = new SimpleMeterRegistry();
+        warmupService = new WarmupService(embeddingModel, new JdbcTemplate(dataSource), new TextChunkingService(100, 1),
+                meterRegistry, "public", "vector_store", 3, 5, Duration.ofSeconds(1));
+    }
+
+    @Test
+    void testWarmupTouchesEachDependencyAndRecordsDuration() throws Exception {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[768]);
+
+        warmupService.onApplicationReady();
+
+        verify(embeddingModel).embed(anyString());
+        verify(dataSource, times(3)).getConnection();
+        verify(statement, times(3)).execute("SELECT id FROM public.vector_store LIMIT 1");
+        verify(connection, times(3)).close();
+        assertTrue(warmupService.awaitCompletion());
+        for (String step : new String[]{"embedding", "vector-store", "chunker", "total"}) {
+            assertEquals(1, meterRegistry.get("embeddings.warmup.duration").tag("step", step).timer().count());
+        }
+    }
+
+    @Test
+    void testFailedStepDoesNotBlockTheRest() throws Exception {
+        when(embeddingModel.embed(anyString())).thenThrow(new IllegalStateException("provider unavailable"));
+
+        assertFalse(warmupService.awaitCompletion());
+        warmupService.onApplicationReady();
+
+        verify(statement, times(3)).execute(anyString());
+        assertTrue(warmupService.awaitCompletion());
+    }
+}